@@ -0,0 +1,55 @@
+package kaciras;
+
+import org.apache.ibatis.session.SqlSessionManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较经过 Dispatcher（流式解析请求体绑定参数 + 预先编译的方法句柄调用 + 会话管理 + 序列化响应）
+ * 与直接调用控制器的差距。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatcherBenchmark {
+
+	private MemoryDatabase database;
+	private Controller controller;
+	private Dispatcher dispatcher;
+
+	@Setup
+	public void setUp() throws Exception {
+		database = new MemoryDatabase();
+
+		// 与演示服务器一样，每个请求使用单独的会话。
+		var sessions = SqlSessionManager.newInstance(Utils.createSessionFactory(database.dataSource));
+		var mapper = sessions.getMapper(CategoryMapper.class);
+		Category.mapper = mapper;
+
+		controller = new Controller(database.dataSource, new Repository(mapper));
+		dispatcher = new Dispatcher(database.dataSource, sessions, controller, new RequestGate(1, 0, 0));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Benchmark
+	public byte[] dispatch() throws Exception {
+		var exchange = new FakeExchange("/api/getSubLayer", "{\"id\":12,\"depth\":2}");
+		dispatcher.handle(exchange);
+		return exchange.getResponse();
+	}
+
+	@Benchmark
+	public Object direct() {
+		database.dataSource.reset();
+		return controller.getSubLayer(12, 2);
+	}
+}
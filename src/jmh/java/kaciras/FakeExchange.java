@@ -0,0 +1,120 @@
+package kaciras;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 不经过网络的 HttpExchange，请求体和响应体都在内存中，用于单独测量 Dispatcher 的开销。
+ */
+final class FakeExchange extends HttpExchange {
+
+	private final Headers requestHeaders = new Headers();
+	private final Headers responseHeaders = new Headers();
+
+	private final URI uri;
+	private InputStream requestBody;
+	private OutputStream responseBody = new ByteArrayOutputStream();
+
+	private int status = -1;
+
+	FakeExchange(String path, String body) {
+		this.uri = URI.create(path);
+		this.requestBody = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	byte[] getResponse() {
+		return ((ByteArrayOutputStream) responseBody).toByteArray();
+	}
+
+	@Override
+	public Headers getRequestHeaders() {
+		return requestHeaders;
+	}
+
+	@Override
+	public Headers getResponseHeaders() {
+		return responseHeaders;
+	}
+
+	@Override
+	public URI getRequestURI() {
+		return uri;
+	}
+
+	@Override
+	public String getRequestMethod() {
+		return "POST";
+	}
+
+	@Override
+	public HttpContext getHttpContext() {
+		return null;
+	}
+
+	@Override
+	public void close() {}
+
+	@Override
+	public InputStream getRequestBody() {
+		return requestBody;
+	}
+
+	@Override
+	public OutputStream getResponseBody() {
+		return responseBody;
+	}
+
+	@Override
+	public void sendResponseHeaders(int rCode, long responseLength) {
+		status = rCode;
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return null;
+	}
+
+	@Override
+	public int getResponseCode() {
+		return status;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return null;
+	}
+
+	@Override
+	public String getProtocol() {
+		return "HTTP/1.1";
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		return null;
+	}
+
+	@Override
+	public void setAttribute(String name, Object value) {}
+
+	@Override
+	public void setStreams(InputStream i, OutputStream o) {
+		if (i != null) requestBody = i;
+		if (o != null) responseBody = o;
+	}
+
+	@Override
+	public HttpPrincipal getPrincipal() {
+		return null;
+	}
+}
@@ -0,0 +1,84 @@
+package kaciras;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CategoryMapper 各个方法在 Sqlite 内存数据库上的耗时，包含 Mybatis 的映射开销。
+ * <p>
+ * 节点 12 在第 2 层，子树有 111 个节点；节点 5555 在第 4 层，是叶节点。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+	private MemoryDatabase database;
+	private CategoryMapper mapper;
+
+	private Category subTree;
+	private Category target;
+
+	@Setup
+	public void setUp() throws Exception {
+		database = new MemoryDatabase();
+		mapper = database.mapper;
+		subTree = mapper.selectById(12);
+		target = mapper.selectById(99);
+	}
+
+	/**
+	 * 清空记录的 SQL，免得它一直增长。每轮清一次即可，Level.Invocation 的开销会混进测量结果里。
+	 */
+	@Setup(Level.Iteration)
+	public void reset() {
+		database.dataSource.reset();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Benchmark
+	public Category selectById() {
+		return mapper.selectById(5555);
+	}
+
+	@Benchmark
+	public Integer selectAncestor() {
+		return mapper.selectAncestor(5555, 2);
+	}
+
+	@Benchmark
+	public Integer selectDistance() {
+		return mapper.selectDistance(5555, 0);
+	}
+
+	@Benchmark
+	public List<Category> selectSubLayer() {
+		return mapper.selectSubLayer(12, 2);
+	}
+
+	@Benchmark
+	public List<Category> selectDescendant() {
+		return mapper.selectDescendant(12);
+	}
+
+	@Benchmark
+	public List<Category> selectPathToRoot() {
+		return mapper.selectPathToRoot(5555);
+	}
+
+	@Benchmark
+	public void moveTreeTo() {
+		subTree.moveTreeTo(target);
+		database.session.rollback(true);
+	}
+}
@@ -0,0 +1,43 @@
+package kaciras;
+
+import kaciras.setup.DBManager;
+import kaciras.setup.SyntheticDataset;
+import org.apache.ibatis.session.SqlSession;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * 基准测试共用的 Sqlite 内存数据库，导入一棵 4 层的满 10 叉树（11110 个节点），
+ * 与配置文件无关，这样测出来的主要是 JVM 这边的开销。
+ */
+final class MemoryDatabase implements AutoCloseable {
+
+	final DBManager manager;
+	final TrackingDataSource dataSource;
+	final SqlSession session;
+	final CategoryMapper mapper;
+
+	MemoryDatabase() throws Exception {
+		var connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+		manager = new DBManager("sqlite", new Properties(), connection);
+
+		try (var importer = manager.createTable("closure.sql")) {
+			var ds = SyntheticDataset.complete(10, 4);
+			while (ds.hasNext()) {
+				importer.importData(ds.next());
+			}
+		}
+
+		dataSource = new TrackingDataSource(connection);
+		session = Utils.createSqlSession(dataSource);
+		mapper = session.getMapper(CategoryMapper.class);
+		Category.mapper = mapper;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		manager.getConnection().close();
+	}
+}
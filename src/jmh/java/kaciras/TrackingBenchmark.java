@@ -0,0 +1,62 @@
+package kaciras;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测量 TrackingDataSource 记录 SQL 的开销，包括动态代理（ArgRecordHandler）和 String.format。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackingBenchmark {
+
+	private static final String SQL = "SELECT ancestor FROM category_tree WHERE descendant=? AND distance=?";
+
+	private MemoryDatabase database;
+	private PreparedStatement raw;
+	private PreparedStatement tracked;
+
+	@Setup
+	public void setUp() throws Exception {
+		database = new MemoryDatabase();
+		raw = database.manager.getConnection().prepareStatement(SQL);
+		tracked = database.dataSource.getConnection().prepareStatement(SQL);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Benchmark
+	public long raw() throws Exception {
+		return query(raw);
+	}
+
+	@Benchmark
+	public long tracked() throws Exception {
+		database.dataSource.reset();
+		return query(tracked);
+	}
+
+	@Benchmark
+	public String format() {
+		return String.format(SQL.replace("?", "%s"), 5555, 2);
+	}
+
+	private static long query(PreparedStatement stat) throws Exception {
+		stat.setInt(1, 5555);
+		stat.setInt(2, 2);
+		try (var results = stat.executeQuery()) {
+			results.next();
+			return results.getLong(1);
+		}
+	}
+}
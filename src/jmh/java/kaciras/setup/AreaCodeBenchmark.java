@@ -0,0 +1,56 @@
+package kaciras.setup;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 行政区划数据每一行的解析开销，导入时这部分要执行 60 多万次。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AreaCodeBenchmark {
+
+	private static final String LINES = """
+			130000000000,河北省,1
+			130100000000,石家庄市,2
+			130102000000,长安区,3
+			130102001000,建北街道,4
+			130102001001,棉一社区居民委员会,5
+			""";
+
+	private final ByteBuffer buffer;
+
+	public AreaCodeBenchmark() {
+		var bytes = LINES.getBytes(StandardCharsets.UTF_8);
+		buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) {
+		var ds = new AreaCodeDataset(buffer.duplicate());
+		while (ds.hasNext()) {
+			var row = ds.next();
+			bh.consume(row.getId());
+			bh.consume(row.getAncestorIds());
+		}
+	}
+
+	@Benchmark
+	public void parseWithName(Blackhole bh) {
+		var ds = new AreaCodeDataset(buffer.duplicate());
+		while (ds.hasNext()) {
+			var row = ds.next();
+			bh.consume(row.getName());
+			bh.consume(row.getId());
+			bh.consume(row.getAncestorIds());
+		}
+	}
+}
@@ -3,30 +3,36 @@ package kaciras;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.sql.PreparedStatement;
-import java.util.List;
+import java.sql.SQLException;
+import java.util.Arrays;
 
 /**
- * 获取 SQL 的第三层包装，代理 PreparedStatement，记录所有执行过的 SQL 语句。
+ * 获取 SQL 的第三层包装，代理 PreparedStatement，记录所有执行过的 SQL 语句及其影响的行数。
  */
 final class ArgRecordHandler implements InvocationHandler {
 
-	// 目前的 SQL 里最多只有 3 个参数。
-	private final Object[] parameters = new Object[3];
+	private final Object[] parameters;
 
 	private final PreparedStatement statement;
 	private final String template;
-	private final List<String> records;
+	private final TrackingDataSource tracker;
 
-	ArgRecordHandler(PreparedStatement statement, String sql, List<String> records) {
+	ArgRecordHandler(PreparedStatement statement, String sql, TrackingDataSource tracker) {
 		this.statement = statement;
-		this.records = records;
+		this.tracker = tracker;
 		this.template = sql.replace("?", "%s");
+
+		// 批量插入的参数个数不固定，按占位符的数量来分配。
+		this.parameters = new Object[(int) sql.chars().filter(c -> c == '?').count()];
 	}
 
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
 		if (method.getName().startsWith("execute")) {
-			records.add(String.format(template, parameters));
+			tracker.record(String.format(template, parameters));
+			var returnValue = method.invoke(statement, args);
+			tracker.addAffectedRows(countRows(returnValue));
+			return returnValue;
 		} else switch (method.getName()) {
 			case "setByte":
 			case "setShort":
@@ -46,4 +52,18 @@ final class ArgRecordHandler implements InvocationHandler {
 		}
 		return method.invoke(statement, args);
 	}
+
+	/**
+	 * 根据 execute 系列方法的返回值算出影响的行数，查询语句返回 0。
+	 * getUpdateCount() 可以重复调用，不影响 Mybatis 后续的读取。
+	 */
+	private int countRows(Object returnValue) throws SQLException {
+		return switch (returnValue) {
+			case Integer rows -> rows;
+			case Long rows -> rows.intValue();
+			case int[] batch -> Arrays.stream(batch).filter(n -> n > 0).sum();
+			case Boolean hasResultSet when !hasResultSet -> Math.max(statement.getUpdateCount(), 0);
+			default -> 0;
+		};
+	}
 }
@@ -2,13 +2,124 @@ package kaciras;
 
 import kaciras.setup.AreaCodeDataset;
 import kaciras.setup.DBManager;
+import kaciras.setup.SyntheticDataset;
 import lombok.Cleanup;
 import me.tongfei.progressbar.ProgressBar;
 
+import java.io.FileNotFoundException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
 
+/**
+ * 对比闭包表和邻接表（递归 CTE）在各种查询上的性能。
+ * <p>
+ * 在行政区划数据（没有则用生成的随机树）的每一级中随机选取节点，对每种查询分别统计两种表的 p50、p99 延迟和吞吐量。
+ * 随机数的种子是固定的，所以每次运行选到的节点都一样，方便对比不同的数据库。
+ */
 public final class Benchmark {
 
+	private static final int LEVELS = 5;
+	private static final int SAMPLES = 100;
+	private static final int WARMUP = 10;
+	private static final long SEED = 20221231;
+
+	/**
+	 * 被查询的节点，ancestor 是它所在的省级节点，用于查询到祖先的路径。
+	 */
+	private record Sample(long id, long ancestor) {}
+
+	private record Query(String sql, Function<Sample, long[]> args) {}
+
+	private record Operation(String name, Query closure, Query adjacent) {}
+
+	private static final List<Operation> OPERATIONS = List.of(
+			new Operation("子节点",
+					new Query("SELECT id,name FROM category JOIN category_tree ON id=descendant WHERE ancestor=? AND distance=?",
+							s -> new long[]{s.id, 1}),
+					new Query("SELECT id,name FROM adjacent WHERE parent=?",
+							s -> new long[]{s.id})
+			),
+			new Operation("下 2 级",
+					new Query("SELECT id,name FROM category JOIN category_tree ON id=descendant WHERE ancestor=? AND distance=?",
+							s -> new long[]{s.id, 2}),
+					new Query("""
+							WITH RECURSIVE t(id, name, d) AS (
+								SELECT id, name, 0 FROM adjacent WHERE id=?
+								UNION ALL
+								SELECT a.id, a.name, t.d+1 FROM adjacent AS a JOIN t ON a.parent=t.id WHERE t.d<?
+							)
+							SELECT id, name FROM t WHERE d=?""",
+							s -> new long[]{s.id, 2, 2})
+			),
+			new Operation("到根的路径",
+					new Query("SELECT id,name FROM category JOIN category_tree ON id=ancestor WHERE descendant=? AND ancestor>0 ORDER BY distance DESC",
+							s -> new long[]{s.id}),
+					new Query("""
+							WITH RECURSIVE t(id, parent, name, d) AS (
+								SELECT id, parent, name, 0 FROM adjacent WHERE id=?
+								UNION ALL
+								SELECT a.id, a.parent, a.name, t.d+1 FROM adjacent AS a JOIN t ON a.id=t.parent
+							)
+							SELECT id, name FROM t ORDER BY d DESC""",
+							s -> new long[]{s.id})
+			),
+			new Operation("到祖先的路径",
+					new Query("SELECT id,name FROM category JOIN category_tree ON id=ancestor WHERE descendant=? AND " +
+							"distance < (SELECT distance FROM category_tree WHERE descendant=? AND ancestor=?) ORDER BY distance DESC",
+							s -> new long[]{s.id, s.id, s.ancestor}),
+					new Query("""
+							WITH RECURSIVE t(id, parent, name, d) AS (
+								SELECT id, parent, name, 0 FROM adjacent WHERE id=? AND id<>?
+								UNION ALL
+								SELECT a.id, a.parent, a.name, t.d+1 FROM adjacent AS a JOIN t ON a.id=t.parent WHERE a.id<>?
+							)
+							SELECT id, name FROM t ORDER BY d DESC""",
+							s -> new long[]{s.id, s.ancestor, s.ancestor})
+			),
+			new Operation("级别",
+					new Query("SELECT distance FROM category_tree WHERE descendant=? AND ancestor=0",
+							s -> new long[]{s.id}),
+					new Query("""
+							WITH RECURSIVE t(id, parent) AS (
+								SELECT id, parent FROM adjacent WHERE id=?
+								UNION ALL
+								SELECT a.id, a.parent FROM adjacent AS a JOIN t ON a.id=t.parent
+							)
+							SELECT COUNT(*) FROM t""",
+							s -> new long[]{s.id})
+			),
+			new Operation("子树大小",
+					new Query("SELECT COUNT(*) FROM category_tree WHERE ancestor=?",
+							s -> new long[]{s.id}),
+					new Query("""
+							WITH RECURSIVE t(id) AS (
+								SELECT id FROM adjacent WHERE id=?
+								UNION ALL
+								SELECT a.id FROM adjacent AS a JOIN t ON a.parent=t.id
+							)
+							SELECT COUNT(*) FROM t""",
+							s -> new long[]{s.id})
+			),
+			new Operation("整个子树",
+					new Query("SELECT id,name FROM category JOIN category_tree ON id=descendant WHERE ancestor=?",
+							s -> new long[]{s.id}),
+					new Query("""
+							WITH RECURSIVE t(id, name) AS (
+								SELECT id, name FROM adjacent WHERE id=?
+								UNION ALL
+								SELECT a.id, a.name FROM adjacent AS a JOIN t ON a.parent=t.id
+							)
+							SELECT id, name FROM t""",
+							s -> new long[]{s.id})
+			)
+	);
+
 	public static void run() throws Exception {
 		var manager = DBManager.open();
 		var connection = manager.getConnection();
@@ -19,47 +130,113 @@ public final class Benchmark {
 			System.out.println("检测到相关表已经存在，使用现有的数据");
 		}
 
-		System.out.println("查询所有下级节点。");
-		bench(connection, "邻接表用时(ms): ", 1000, """
-					WITH RECURSIVE temp(p, n) AS (
-					     SELECT id,`name` FROM adjacent WHERE id=130100000000
-					     UNION
-					     SELECT id,`name` FROM adjacent, temp
-					     WHERE adjacent.parent=temp.p
-					)
-					SELECT * FROM temp;
-				""");
-		bench(connection, "闭包表用时 (ms): ", 1000, "SELECT id,name FROM category JOIN category_tree ON id=descendant WHERE ancestor=130100000000");
+		System.out.printf("数据库：%s，每级随机选取 %d 个节点，延迟单位为毫秒。%n", manager.getDialect(), SAMPLES);
+
+		var random = new Random(SEED);
+		var samples = new Sample[LEVELS + 1][];
+		for (int level = 1; level <= LEVELS; level++) {
+			samples[level] = pickSamples(connection, random, level);
+		}
+
+		for (var operation : OPERATIONS) {
+			System.out.println("\n" + operation.name);
+			System.out.println("级别 |       闭包表 p50 / p99 / 吞吐       |       邻接表 p50 / p99 / 吞吐");
+
+			for (int level = 1; level <= LEVELS; level++) {
+				var closure = measure(connection, operation.closure, samples[level]);
+				var adjacent = measure(connection, operation.adjacent, samples[level]);
+				System.out.printf("  %d  | %s | %s%n", level, closure, adjacent);
+			}
+		}
 
 		System.out.println("\n测试结束，表和数据未删除。");
 	}
 
 	static void initialize(DBManager manager) throws Exception {
 		try (
-				var adjacent = manager.createTable("adjacent.sql");
-				var closure = manager.createTable("closure.sql");
 				var ds = new AreaCodeDataset();
 				var pb = new ProgressBar("导入数据", ds.getTotal())
 		) {
-			while (ds.hasNext()) {
-				var entry = ds.next();
-				pb.stepTo(ds.getProgress());
-				closure.importData(entry);
-				adjacent.importData(entry);
+			manager.importData(ds, () -> pb.stepTo(ds.getProgress()), "adjacent.sql", "closure.sql");
+		} catch (FileNotFoundException e) {
+			initializeSynthetic(manager);
+		}
+	}
+
+	/**
+	 * 没有行政区划数据时，生成一棵形状与之相近的随机树代替，每层约为上一层的 8 倍。
+	 * 节点数可以通过配置文件中的 SYNTHETIC_NODES 设置。
+	 */
+	private static void initializeSynthetic(DBManager manager) throws Exception {
+		var nodes = Integer.parseInt(manager.getProperties().getProperty("SYNTHETIC_NODES", "1000000"));
+		System.out.printf("没有找到行政区划数据，使用生成的 %d 个节点的随机树。%n", nodes);
+
+		var ds = new SyntheticDataset(SEED, nodes, LEVELS, 8, 1);
+		try (var pb = new ProgressBar("导入数据", ds.getTotal())) {
+			manager.importData(ds, () -> pb.stepTo(ds.getProgress()), "adjacent.sql", "closure.sql");
+		}
+	}
+
+	/**
+	 * 从指定级别的所有节点中随机选取（可重复）一些，并查出它们所在的省级节点。
+	 */
+	private static Sample[] pickSamples(Connection conn, Random random, int level) throws SQLException {
+		var ids = new ArrayList<Long>();
+		@Cleanup var stat = conn.prepareStatement("SELECT descendant FROM category_tree WHERE ancestor=0 AND distance=?");
+		stat.setInt(1, level);
+		try (var results = stat.executeQuery()) {
+			while (results.next()) {
+				ids.add(results.getLong(1));
+			}
+		}
+
+		@Cleanup var ancestorStat = conn.prepareStatement("SELECT ancestor FROM category_tree WHERE descendant=? AND distance=?");
+		var samples = new Sample[SAMPLES];
+		for (int i = 0; i < SAMPLES; i++) {
+			var id = ids.get(random.nextInt(ids.size()));
+			ancestorStat.setLong(1, id);
+			ancestorStat.setInt(2, level - 1);
+			try (var results = ancestorStat.executeQuery()) {
+				results.next();
+				samples[i] = new Sample(id, results.getLong(1));
 			}
 		}
+		return samples;
 	}
 
-	private static void bench(Connection conn, String name, int times, String sql) throws Exception {
-		@Cleanup var stat = conn.createStatement();
+	/**
+	 * 对每个节点执行一次查询并读完结果，返回格式化后的统计数据。
+	 */
+	private static String measure(Connection conn, Query query, Sample[] samples) throws SQLException {
+		@Cleanup var stat = conn.prepareStatement(query.sql);
 
-		var start = System.currentTimeMillis();
-		for (int i = 0; i < times; i++) {
-			stat.execute(sql);
+		for (int i = 0; i < WARMUP; i++) {
+			execute(stat, query.args.apply(samples[i % samples.length]));
 		}
-		var end = System.currentTimeMillis();
 
-		var time = (end - start) / (double) times;
-		System.out.printf("%s: %.3f%n", name, time);
+		var times = new long[samples.length];
+		for (int i = 0; i < samples.length; i++) {
+			var args = query.args.apply(samples[i]);
+			var start = System.nanoTime();
+			execute(stat, args);
+			times[i] = System.nanoTime() - start;
+		}
+
+		Arrays.sort(times);
+		var p50 = times[times.length / 2] / 1e6;
+		var p99 = times[(int) Math.ceil(times.length * 0.99) - 1] / 1e6;
+		var throughput = times.length / (Arrays.stream(times).sum() / 1e9);
+		return String.format("%8.3f / %8.3f / %8.0f/s", p50, p99, throughput);
+	}
+
+	private static void execute(PreparedStatement stat, long[] args) throws SQLException {
+		for (int i = 0; i < args.length; i++) {
+			stat.setLong(i + 1, args[i]);
+		}
+		try (var results = stat.executeQuery()) {
+			while (results.next()) {
+				results.getObject(1);
+			}
+		}
 	}
 }
@@ -21,6 +21,16 @@ public class Category {
 	 */
 	static CategoryMapper mapper;
 
+	/*
+	 * 可选的内存索引，设置后级别和祖先等结构查询不再访问数据库，修改方法也会同步更新它。
+	 */
+	static TreeIndex index;
+
+	/*
+	 * 可选的不可变快照，设置后路径、子分类和子树的查询读取最新的快照，修改方法会发布新的快照。
+	 */
+	static VersionedTree snapshots;
+
 	/**
 	 * 分类的 ID 跟分类为 0，其它均大于 0。
 	 * <p>
@@ -40,7 +50,7 @@ public class Category {
 	 */
 	public Integer getAncestorId(int n) {
 		Utils.checkPositive(n, "n");
-		return mapper.selectAncestor(id, n);
+		return index != null ? index.getAncestorId(id, n) : mapper.selectAncestor(id, n);
 	}
 
 	/**
@@ -49,7 +59,7 @@ public class Category {
 	 * @return 级别
 	 */
 	public int getLevel() {
-		return mapper.selectDistance(id, 0);
+		return index != null ? index.getLevel(id) : mapper.selectDistance(id, 0);
 	}
 
 	/**
@@ -63,10 +73,50 @@ public class Category {
 		return mapper.selectSubLayer(id, depth);
 	}
 
+	/**
+	 * 获取该分类往下第 minDepth 到 maxDepth 级（包括两端）的分类，只需一次查询。
+	 * 结果包含每个分类的父 ID 和相对深度，按深度和 ID 排序，父节点总是排在子节点前面。
+	 *
+	 * @param minDepth 最小级数，0 表示包括自身
+	 * @param maxDepth 最大级数
+	 */
+	public List<LevelQueryVO> getLevels(int minDepth, int maxDepth) {
+		Utils.checkNotNegative(minDepth, "minDepth");
+		if (maxDepth < minDepth) {
+			throw new IllegalArgumentException("maxDepth 不能小于 minDepth：" + maxDepth + " < " + minDepth);
+		}
+		return mapper.selectLevels(id, minDepth, maxDepth);
+	}
+
+	/**
+	 * 获取该分类（含）往下 maxDepth 级以内的部分子树，相当于 getLevels(0, maxDepth)。
+	 *
+	 * @param maxDepth 最大级数，0 只返回自身
+	 */
+	public List<LevelQueryVO> getTree(int maxDepth) {
+		return getLevels(0, maxDepth);
+	}
+
+	/**
+	 * 分页获取该分类往下的第 N 级分类，按 ID 升序排列。
+	 *
+	 * @param depth 向下级数 N
+	 * @param token 上一页返回的令牌，第一页为 null
+	 * @param size  每页的数量，不超过 Page.MAX_SIZE
+	 */
+	public Page getSubLayer(int depth, String token, int size) {
+		Utils.checkPositive(depth, "depth");
+		Page.checkSize(size);
+		return Page.of(mapper.selectSubLayerPage(id, depth, Page.decode(token), size + 1), size);
+	}
+
 	/**
 	 * 获取分类所有的直接子类。
 	 */
 	public List<Category> getChildren() {
+		if (snapshots != null) {
+			return snapshots.current().getChildren(id);
+		}
 		return mapper.selectSubLayer(id, 1);
 	}
 
@@ -74,15 +124,43 @@ public class Category {
 	 * 获取该分类的所有下级分类，返回结果的顺序不做保证。
 	 */
 	public List<Category> getTree() {
+		if (snapshots != null) {
+			return snapshots.current().getTree(id);
+		}
 		return mapper.selectDescendant(id);
 	}
 
+	/**
+	 * 分页获取该分类的整个子树（包括自身），按 ID 升序排列。
+	 *
+	 * @param token 上一页返回的令牌，第一页为 null
+	 * @param size  每页的数量，不超过 Page.MAX_SIZE
+	 */
+	public Page getTree(String token, int size) {
+		Page.checkSize(size);
+		return Page.of(mapper.selectDescendantPage(id, Page.decode(token), size + 1), size);
+	}
+
+	/**
+	 * 与 getTree() 相同，但不使用快照时返回 Mybatis 的游标，从数据库逐行读取，内存占用与子树大小无关。
+	 * 游标必须在会话关闭前读完并关闭。
+	 */
+	public Iterable<Category> streamTree() {
+		if (snapshots != null) {
+			return snapshots.current().getTree(id);
+		}
+		return mapper.selectDescendantCursor(id);
+	}
+
 	/**
 	 * 获取根分类到此分类（含）路径上的所有的分类对象。
 	 *
 	 * @return 分类列表，越上级的分类在列表中的位置越靠前
 	 */
 	public List<Category> getPath() {
+		if (snapshots != null) {
+			return snapshots.current().getPath(id);
+		}
 		return mapper.selectPathToRoot(id);
 	}
 
@@ -127,9 +205,22 @@ public class Category {
 		if (id == target) {
 			throw new IllegalArgumentException("不能移动到自己下面");
 		}
+		if (index != null && !index.contains(target)) {
+			throw new IllegalArgumentException("目标分类不存在");
+		}
 
-		moveSubTree(id, mapper.selectAncestor(id, 1));
-		moveNode(id, target);
+		// 先把自己从树中摘除（子节点自动上浮），此时它已没有子代，再挂到目标下面。
+		mapper.shortenPathThrough(id);
+		mapper.deleteRelation(id);
+		mapper.insertPath(id, target);
+		mapper.insertSelfLink(id);
+
+		if (index != null) {
+			index.moved(id, target);
+		}
+		if (snapshots != null) {
+			snapshots.update(tree -> tree.moved(id, target));
+		}
 	}
 
 	/**
@@ -162,7 +253,9 @@ public class Category {
 
 		// 移动分移到自己子树下和无关节点下两种情况
 		var target = Objects.requireNonNull(newParent).id;
-		var distance = mapper.selectDistance(target, id);
+		var distance = index != null ? index.getDistance(target, id) : mapper.selectDistance(target, id);
+
+		var parent = -1;
 
 		// noinspection StatementWithEmptyBody
 		if (distance == null) {
@@ -171,46 +264,40 @@ public class Category {
 			throw new IllegalArgumentException("不能移动到自己下面");
 		} else {
 			// 如果移动的目标是其子类，需要先把子类移动到本类的位置
-			int parent = mapper.selectAncestor(id, 1);
-			moveNode(target, parent);
-			moveSubTree(target, target);
+			parent = getAncestorId(1);
+			moveTree(target, parent);
 		}
 
-		moveNode(id, target);
-		moveSubTree(id, id);
+		moveTree(id, target);
+
+		// 两次移动在同一个版本里发布，读取方不会看到只移动了一半的树。
+		if (snapshots != null) {
+			var lifted = parent;
+			snapshots.update(tree -> {
+				if (lifted != -1) {
+					tree.treeMoved(target, lifted);
+				}
+				tree.treeMoved(id, target);
+			});
+		}
 	}
 
 	// ======================== 内部使用的方法 ========================
 
 	/**
-	 * 将指定节点移动到某节点下面，该方法不修改子节点的相关记录，
-	 * 为了保证数据的完整性，需要与 moveSubTree() 方法配合使用。
+	 * 将指定节点连同其子树移动到某节点下，无论子树多大都只需要两条语句。
+	 * 子树内部的路径不变，只需删除旧的外部路径，再用新父节点的路径与之组合。
+	 * 快照由调用方在所有移动完成后统一发布。
 	 *
 	 * @param id     指定节点的 ID
 	 * @param parent 新的父节点 ID
 	 */
-	private void moveNode(int id, int parent) {
-		mapper.deletePath(id);
-		mapper.insertPath(id, parent);
-		mapper.insertSelfLink(id);
-	}
+	private void moveTree(int id, int parent) {
+		mapper.deleteSubTreePath(id);
+		mapper.insertSubTreePath(id, parent);
 
-	void moveSubTree(int parent) {
-		moveSubTree(id, parent);
-	}
-
-	/**
-	 * 将指定节点的所有子树移动到某节点下
-	 * 如果两个参数相同，则相当于重建子树，用于父节点移动后更新路径
-	 *
-	 * @param id     指定节点的 ID
-	 * @param parent 新的父节点 ID
-	 */
-	private void moveSubTree(int id, int parent) {
-		var subs = mapper.selectSubId(id);
-		for (int sub : subs) {
-			moveNode(sub, parent);
-			moveSubTree(sub, sub);
+		if (index != null) {
+			index.treeMoved(id, parent);
 		}
 	}
 }
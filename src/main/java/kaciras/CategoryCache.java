@@ -0,0 +1,213 @@
+package kaciras;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Repository 使用的分类实体缓存，容量固定，按时钟算法近似地淘汰最近最少使用的分类。
+ * <p>
+ * 数据存在 ConcurrentHashMap 里，命中时只读取并设置一个访问标记，不加锁，多个线程可以同时查询。
+ * 只有放入新分类使容量超出时才加锁淘汰：时钟指针在表上循环移动，有访问标记的清除标记后跳过，
+ * 没有的淘汰掉，所以近期访问过的分类至少能多留一轮。
+ * <p>
+ * 不使用 Mybatis 的缓存是因为要追踪执行的 SQL，见 Utils.createSqlSession。
+ * 分类是可变对象，所以存入和取出时都会复制，调用方修改拿到的对象不会影响缓存。
+ * <p>
+ * 修改数据库后再使缓存失效，失效时递增的代数会让在这之前开始的加载结果不被存入。
+ * 但在提交之前，其它连接读到的仍是旧数据，这期间开始的加载不受代数的限制，
+ * 所以每个线程记下自己失效过的 ID，由事务的发起方在提交后调用 committed() 再失效一次。
+ * 缓存不感知事务，回滚了对分类的修改后需要调用 clear()。
+ */
+public final class CategoryCache {
+
+	private static final class Entry {
+
+		final Category value;
+
+		/** 时钟算法的访问标记，命中时设置，时钟指针经过时清除。 */
+		volatile boolean referenced;
+
+		Entry(Category value) {
+			this.value = value;
+		}
+	}
+
+	private final int capacity;
+	private final Map<Integer, Entry> map = new ConcurrentHashMap<>();
+
+	/** 每次失效都加一，用于丢弃在失效之前开始加载的结果。 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * 当前线程的事务中失效过的 ID，超过容量时改为提交后清空整个缓存，用 null 表示。
+	 * 会话是每个线程一个的，所以线程也就对应了事务。
+	 */
+	private final ThreadLocal<Set<Integer>> uncommitted = ThreadLocal.withInitial(HashSet::new);
+	private final ThreadLocal<Boolean> overflowed = ThreadLocal.withInitial(() -> false);
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/** 时钟指针，只在持有 evictLock 时使用。 */
+	private final Object evictLock = new Object();
+	private Iterator<Map.Entry<Integer, Entry>> hand;
+
+	CategoryCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("缓存容量必须大于 0");
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * 从缓存中获取分类，没有则用 loader 加载并存入。不存在的分类（null）不缓存。
+	 */
+	Category get(int id, IntFunction<Category> loader) {
+		var cached = map.get(id);
+		if (cached != null) {
+			cached.referenced = true;
+			hits.increment();
+			return copy(cached.value);
+		}
+		misses.increment();
+		var version = generation.get();
+
+		// 加载时不持有任何锁，避免一个慢查询阻塞其它线程。
+		var loaded = loader.apply(id);
+		if (loaded == null) {
+			return null;
+		}
+		var entry = new Entry(copy(loaded));
+		map.put(id, entry);
+
+		// 失效操作先递增代数再删除，如果放入之后发现代数变了，说明加载的可能是旧数据。
+		if (generation.get() != version) {
+			map.remove(id, entry);
+		} else if (map.size() > capacity) {
+			evict();
+		}
+		return loaded;
+	}
+
+	void invalidate(int id) {
+		generation.incrementAndGet();
+		map.remove(id);
+		remember(id);
+	}
+
+	void invalidateAll(int[] ids) {
+		generation.incrementAndGet();
+		for (var id : ids) {
+			map.remove(id);
+			remember(id);
+		}
+	}
+
+	/**
+	 * 清空缓存，也会忘掉当前线程记下的 ID。
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		map.clear();
+		forget();
+	}
+
+	/**
+	 * 当前线程的事务提交后调用，再次失效该事务中失效过的分类，
+	 * 清除其它连接在提交前读到并存入的旧数据。
+	 */
+	public void committed() {
+		if (overflowed.get()) {
+			clear();
+			return;
+		}
+		var ids = uncommitted.get();
+		if (!ids.isEmpty()) {
+			generation.incrementAndGet();
+			for (var id : ids) {
+				map.remove(id);
+			}
+			ids.clear();
+		}
+	}
+
+	private void remember(int id) {
+		if (overflowed.get()) {
+			return;
+		}
+		var ids = uncommitted.get();
+		ids.add(id);
+		if (ids.size() > capacity) {
+			ids.clear();
+			overflowed.set(true);
+		}
+	}
+
+	private void forget() {
+		uncommitted.get().clear();
+		overflowed.set(false);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	/**
+	 * 命中率，还没有查询过则为 0。
+	 */
+	public double getHitRate() {
+		var hits = this.hits.sum();
+		var total = hits + misses.sum();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * 移动时钟指针直到数量不超过容量，指针到头后从表的开头重新开始。
+	 * ConcurrentHashMap 的迭代器是弱一致的，淘汰期间其它线程的读写不受影响。
+	 */
+	private void evict() {
+		synchronized (evictLock) {
+			while (map.size() > capacity) {
+				if (hand == null || !hand.hasNext()) {
+					hand = map.entrySet().iterator();
+					if (!hand.hasNext()) {
+						return;
+					}
+				}
+				var next = hand.next();
+				var entry = next.getValue();
+				if (entry.referenced) {
+					entry.referenced = false;
+				} else if (map.remove(next.getKey(), entry)) {
+					evictions.increment();
+				}
+			}
+		}
+	}
+
+	private static Category copy(Category category) {
+		var copy = new Category();
+		copy.setId(category.getId());
+		copy.setName(category.getName());
+		return copy;
+	}
+}
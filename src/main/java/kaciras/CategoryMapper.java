@@ -1,6 +1,8 @@
 package kaciras;
 
 import org.apache.ibatis.annotations.*;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.ResultHandler;
 
 import java.util.List;
 
@@ -13,6 +15,48 @@ public interface CategoryMapper {
 	@Insert("INSERT INTO category (name) VALUES (#{name})")
 	void insert(Category category);
 
+	/**
+	 * 一条语句插入多个分类，并按插入的顺序返回生成的 ID。
+	 * <p>
+	 * Sqlite 的驱动在多行插入时只能取到最后一个 ID，所以这里用 RETURNING 把 INSERT 当作查询来执行。
+	 * RETURNING 结果的顺序没有保证，但同一条语句中自增的 ID 是递增的，排序后即为插入的顺序。
+	 * MySQL 不支持 RETURNING，要改用 insertAllRows 和 selectLastInsertId，见 selectReturningSupported。
+	 *
+	 * @param categories 分类列表
+	 * @return 生成的 ID，未排序
+	 */
+	@Select("<script>INSERT INTO category (name) VALUES " +
+			"<foreach collection='categories' item='c' separator=','>(#{c.name})</foreach> " +
+			"RETURNING id</script>")
+	int[] insertAll(List<Category> categories);
+
+	/**
+	 * 能否使用 insertAll。mysql 下面的 MySQL 不支持 RETURNING，为了两者一致，Mariadb 也不用它。
+	 */
+	@Select("SELECT 1")
+	@Select(databaseId = "mysql", value = "SELECT 0")
+	boolean selectReturningSupported();
+
+	/**
+	 * 与 insertAll 相同但不返回 ID，用于不支持 RETURNING 的数据库。
+	 * <p>
+	 * 插入后由 selectLastInsertId 取得第一行的 ID，再加上行数即为全部的 ID。
+	 * 这要求同一条语句中的自增 ID 是连续的，即 innodb_autoinc_lock_mode 不大于 1、
+	 * auto_increment_increment 为 1，Mariadb 默认如此，MySQL 8 的默认值为 2，需要修改。
+	 *
+	 * @param categories 分类列表
+	 * @return 插入的行数
+	 */
+	@Insert("<script>INSERT INTO category (name) VALUES " +
+			"<foreach collection='categories' item='c' separator=','>(#{c.name})</foreach></script>")
+	int insertAllRows(List<Category> categories);
+
+	/**
+	 * 本连接上一条 INSERT 生成的第一个自增 ID，多行插入时是第一行的。
+	 */
+	@Select("SELECT LAST_INSERT_ID()")
+	int selectLastInsertId();
+
 	@Update("UPDATE category SET name=#{name} WHERE id=#{id}")
 	int update(Category category);
 
@@ -36,6 +80,31 @@ public interface CategoryMapper {
 			"SELECT ancestor, #{id}, distance+1 FROM category_tree WHERE descendant=#{parent}")
 	void insertPath(int id, int parent);
 
+	/**
+	 * 为同一个父节点下的多个新节点插入完整的路径，相当于对每个节点调用 insertPath 和 insertSelfLink。
+	 *
+	 * @param ids    新节点的 ID
+	 * @param parent 父节点的 ID
+	 */
+	@Insert("<script>INSERT INTO category_tree (ancestor, descendant, distance) " +
+			"SELECT A.ancestor, B.id, A.distance+1 FROM category_tree AS A JOIN category AS B ON B.id IN " +
+			"<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach> " +
+			"WHERE A.descendant=#{parent} " +
+			"UNION ALL SELECT id, id, 0 FROM category WHERE id IN " +
+			"<foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+			"</script>")
+	void insertAllPaths(int[] ids, int parent);
+
+	/**
+	 * 批量插入关系表的记录，路径由调用方计算好。
+	 *
+	 * @param rows 关系表的记录
+	 */
+	@Insert("<script>INSERT INTO category_tree (ancestor, descendant, distance) VALUES " +
+			"<foreach collection='rows' item='r' separator=','>(#{r.ancestor},#{r.descendant},#{r.distance})</foreach>" +
+			"</script>")
+	void insertRows(List<ClosureRow> rows);
+
 	/**
 	 * 从属性表（category）中删除指定节点。
 	 *
@@ -56,6 +125,98 @@ public interface CategoryMapper {
 	@Delete("DELETE FROM category_tree WHERE descendant=#{id}")
 	void deletePath(int id);
 
+	/**
+	 * 从关系表（category_tree）中删除与指定节点相关的所有记录，
+	 * 包括它到祖先的路径和它到子代的路径。
+	 *
+	 * <h2>注意</h2>
+	 * 子代到该节点祖先的路径仍然经过它，需要先调用 shortenPathThrough 修正距离。
+	 *
+	 * @param id 节点的 ID
+	 */
+	@Delete("DELETE FROM category_tree WHERE ancestor=#{id} OR descendant=#{id}")
+	void deleteRelation(int id);
+
+	/**
+	 * 将所有经过指定节点的路径的距离减一，即子代（不含自身）到它祖先（不含自身）的路径。
+	 * 该方法与 deleteRelation 搭配使用，两条语句即可把节点从树中摘除，子节点自动上浮。
+	 * <p>
+	 * 方言的处理同 deleteSubTreePath，MySQL 同样不能在子查询中引用 UPDATE 的目标表。
+	 *
+	 * @param id 节点的 ID
+	 */
+	@Update("UPDATE category_tree SET distance=distance-1 WHERE " +
+			"descendant IN (SELECT descendant FROM category_tree WHERE ancestor=#{id} AND distance>0) AND " +
+			"ancestor IN (SELECT ancestor FROM category_tree WHERE descendant=#{id} AND distance>0)")
+	@Update(databaseId = "mysql", value = "UPDATE category_tree AS A " +
+			"JOIN category_tree AS D ON A.descendant=D.descendant " +
+			"JOIN category_tree AS U ON A.ancestor=U.ancestor " +
+			"SET A.distance=A.distance-1 " +
+			"WHERE D.ancestor=#{id} AND D.distance>0 AND U.descendant=#{id} AND U.distance>0")
+	@Update(databaseId = "postgres", value = "UPDATE category_tree AS A SET distance=A.distance-1 " +
+			"FROM category_tree AS D, category_tree AS U " +
+			"WHERE D.ancestor=#{id} AND D.distance>0 AND A.descendant=D.descendant " +
+			"AND U.descendant=#{id} AND U.distance>0 AND A.ancestor=U.ancestor")
+	void shortenPathThrough(int id);
+
+	/**
+	 * 删除子树中所有节点到子树外祖先的路径，子树内部的路径保持不变。
+	 * 该方法与 insertSubTreePath 搭配使用，两条语句即可移动整个子树。
+	 *
+	 * <h2>方言</h2>
+	 * MySQL 不允许在子查询中引用 DELETE 的目标表，只能改用多表 JOIN 的写法；
+	 * PostgreSQL 则用 USING 代替 IN 子查询，让优化器能选择连接方式。
+	 *
+	 * @param id 子树根节点的 ID
+	 */
+	@Delete("DELETE FROM category_tree WHERE " +
+			"descendant IN (SELECT descendant FROM category_tree WHERE ancestor=#{id}) AND " +
+			"ancestor NOT IN (SELECT descendant FROM category_tree WHERE ancestor=#{id})")
+	@Delete(databaseId = "mysql", value = "DELETE A FROM category_tree AS A " +
+			"JOIN category_tree AS D ON A.descendant=D.descendant " +
+			"LEFT JOIN category_tree AS X ON X.ancestor=#{id} AND X.descendant=A.ancestor " +
+			"WHERE D.ancestor=#{id} AND X.ancestor IS NULL")
+	@Delete(databaseId = "postgres", value = "DELETE FROM category_tree AS A " +
+			"USING category_tree AS D " +
+			"WHERE D.ancestor=#{id} AND A.descendant=D.descendant AND NOT EXISTS " +
+			"(SELECT 1 FROM category_tree AS X WHERE X.ancestor=#{id} AND X.descendant=A.ancestor)")
+	void deleteSubTreePath(int id);
+
+	/**
+	 * 从属性表（category）中删除子树里的所有节点，包括子树的根。
+	 * 必须在 deleteTreePath 之前调用，因为要靠关系表来找出子树的节点。
+	 *
+	 * @param id 子树根节点的 ID
+	 */
+	@Delete("DELETE FROM category WHERE id IN (SELECT descendant FROM category_tree WHERE ancestor=#{id})")
+	void deleteTree(int id);
+
+	/**
+	 * 从关系表（category_tree）中删除子树里所有节点的路径，包括子树的根。
+	 * 方言的处理同 deleteSubTreePath。
+	 *
+	 * @param id 子树根节点的 ID
+	 */
+	@Delete("DELETE FROM category_tree WHERE descendant IN (SELECT descendant FROM category_tree WHERE ancestor=#{id})")
+	@Delete(databaseId = "mysql", value = "DELETE A FROM category_tree AS A " +
+			"JOIN category_tree AS D ON A.descendant=D.descendant WHERE D.ancestor=#{id}")
+	@Delete(databaseId = "postgres", value = "DELETE FROM category_tree AS A " +
+			"USING category_tree AS D WHERE D.ancestor=#{id} AND A.descendant=D.descendant")
+	void deleteTreePath(int id);
+
+	/**
+	 * 将新父节点的所有祖先（含自身）与子树中的每个节点做笛卡尔积，插入子树到外部的路径。
+	 * 调用前需要先用 deleteSubTreePath 删除旧的外部路径。
+	 *
+	 * @param id     子树根节点的 ID
+	 * @param parent 新的父节点 ID
+	 */
+	@Insert("INSERT INTO category_tree (ancestor, descendant, distance) " +
+			"SELECT A.ancestor, B.descendant, A.distance+B.distance+1 " +
+			"FROM category_tree AS A CROSS JOIN category_tree AS B " +
+			"WHERE A.descendant=#{parent} AND B.ancestor=#{id}")
+	void insertSubTreePath(int id, int parent);
+
 	// ======================== 查询相关的方法 ========================
 
 	@Select("SELECT * FROM category WHERE id=#{id}")
@@ -89,6 +250,56 @@ public interface CategoryMapper {
 			"WHERE ancestor=#{ancestor}")
 	List<Category> selectDescendant(int ancestor);
 
+	/**
+	 * 查询某个节点往下第 minDepth 到 maxDepth 级（包括两端）的节点，以及它们的父节点和相对深度。
+	 * 范围条件走 index_0，父节点通过主键查询，结果按深度和 ID 排序。
+	 *
+	 * @param ancestor 起点的 ID
+	 * @param minDepth 最小距离，0 表示包括起点自己
+	 * @param maxDepth 最大距离
+	 */
+	@Select("SELECT B.*, A.distance AS depth, P.ancestor AS parentId FROM category_tree AS A " +
+			"JOIN category AS B ON A.descendant=B.id " +
+			"LEFT JOIN category_tree AS P ON P.descendant=A.descendant AND P.distance=1 " +
+			"WHERE A.ancestor=#{ancestor} AND A.distance BETWEEN #{minDepth} AND #{maxDepth} " +
+			"ORDER BY A.distance, A.descendant")
+	List<LevelQueryVO> selectLevels(int ancestor, int minDepth, int maxDepth);
+
+	/**
+	 * 分页查询某个节点的第 N 级子节点，按 ID 升序，使用 index_0。
+	 *
+	 * @param after 只查询 ID 大于它的节点，第一页为 -1
+	 * @param limit 最多返回的数量
+	 */
+	@Select("SELECT B.* FROM category_tree AS A " +
+			"JOIN category AS B ON A.descendant=B.id " +
+			"WHERE ancestor=#{ancestor} AND distance=#{distance} AND descendant > #{after} " +
+			"ORDER BY descendant LIMIT #{limit}")
+	List<Category> selectSubLayerPage(int ancestor, int distance, int after, int limit);
+
+	/**
+	 * 分页查询某个节点的子树（包括自身），按 ID 升序，使用 index_1。
+	 *
+	 * @param after 只查询 ID 大于它的节点，第一页为 -1
+	 * @param limit 最多返回的数量
+	 */
+	@Select("SELECT B.* FROM category_tree AS A " +
+			"JOIN category AS B ON A.descendant=B.id " +
+			"WHERE ancestor=#{ancestor} AND descendant > #{after} " +
+			"ORDER BY descendant LIMIT #{limit}")
+	List<Category> selectDescendantPage(int ancestor, int after, int limit);
+
+	/**
+	 * 与 selectDescendant 相同，但返回游标逐行读取，用于很大的子树。
+	 * 游标必须在会话关闭前读完，MySQL 和 PostgreSQL 按 fetchSize 分批从服务器获取。
+	 */
+	@Options(fetchSize = 1000)
+	@Select("SELECT B.* FROM category_tree AS A " +
+			"JOIN category AS B " +
+			"ON A.descendant=B.id " +
+			"WHERE ancestor=#{ancestor}")
+	Cursor<Category> selectDescendantCursor(int ancestor);
+
 	/**
 	 * 查找某节点下的所有直属子节点的 ID。
 	 * 该方法与上面的<code>selectSubLayer</code>不同，它只查询节点的 ID 效率高些。
@@ -118,6 +329,15 @@ public interface CategoryMapper {
 	@Select("SELECT ancestor FROM category_tree WHERE descendant=#{id} AND distance=#{distance}")
 	Integer selectAncestor(int id, int distance);
 
+	/**
+	 * 查询节点的所有祖先的 ID，包括自身和根节点。
+	 *
+	 * @param id 节点的 ID
+	 * @return 祖先 ID 数组，下标即为距离。如果节点不存在则返回空数组
+	 */
+	@Select("SELECT ancestor FROM category_tree WHERE descendant=#{id} ORDER BY distance")
+	int[] selectAncestorIds(int id);
+
 	/**
 	 * 查询由 ID 指定节点（含）到根节点（不含）的路径。
 	 * 比下面的<code>selectPathToAncestor</code>简单些。
@@ -155,10 +375,35 @@ public interface CategoryMapper {
 	@Select("SELECT distance FROM category_tree WHERE descendant=#{id} AND ancestor=#{ancestor}")
 	Integer selectDistance(int id, int ancestor);
 
+	/**
+	 * 逐行读取所有距离为 1 的记录（即每个节点与其父节点），用于加载 TreeIndex。
+	 *
+	 * @param handler 处理每一行的回调
+	 */
+	@ResultType(ClosureRow.class)
+	@Select("SELECT ancestor, descendant, distance FROM category_tree WHERE distance=1")
+	void selectParentLinks(ResultHandler<ClosureRow> handler);
+
+	/**
+	 * 逐行读取所有分类及其父分类的 ID，根分类的父分类为 null，用于加载 VersionedTree。
+	 *
+	 * @param handler 处理每一行的回调
+	 */
+	@ResultType(ListQueryVO.class)
+	@Select("SELECT A.*, ancestor as parentId FROM category AS A " +
+			"LEFT JOIN (SELECT * FROM category_tree WHERE distance=1) AS B ON A.id=B.descendant")
+	void selectNodes(ResultHandler<ListQueryVO> handler);
+
 	// ======================== 特殊方法，仅用于演示页面 ========================
 
 	@Select("SELECT A.*, ancestor as parentId FROM category AS A " +
 			"LEFT JOIN (SELECT * FROM category_tree WHERE distance=1) AS B ON A.id=B.descendant " +
 			"ORDER BY id ASC")
 	List<ListQueryVO> selectAllWithParent();
+
+	@Options(fetchSize = 1000)
+	@Select("SELECT A.*, ancestor as parentId FROM category AS A " +
+			"LEFT JOIN (SELECT * FROM category_tree WHERE distance=1) AS B ON A.id=B.descendant " +
+			"ORDER BY id ASC")
+	Cursor<ListQueryVO> selectAllWithParentCursor();
 }
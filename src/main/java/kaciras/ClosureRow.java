@@ -0,0 +1,13 @@
+package kaciras;
+
+import lombok.Value;
+
+/**
+ * 关系表（category_tree）中的一条记录，用于在内存中算好路径后批量插入。
+ */
+@Value
+public class ClosureRow {
+	int ancestor;
+	int descendant;
+	int distance;
+}
@@ -0,0 +1,333 @@
+package kaciras;
+
+import kaciras.setup.DBManager;
+import lombok.Cleanup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+/**
+ * 检查 category_tree 表的一致性：每个节点有且只有一条自身链接、一条距离为 1 的父节点记录，
+ * 并且它的祖先链等于父节点的祖先链加上一层。
+ * <p>
+ * 按 descendant 排序流式读取整个表，每个节点只保留固定大小的摘要：祖先链的指纹（每行哈希值之和，与顺序无关），
+ * 以及去掉自身、距离减 1 后的指纹，后者应与父节点的指纹相同。所以内存只与节点数有关（每个节点 32 字节），
+ * 与祖先链的长度无关。摘要的数组在读取前按节点数一次分配好，不会在扩容时出现两倍的峰值。
+ * 由于根节点的链是确定的，从根往下归纳即可证明所有节点的链都正确。
+ * <p>
+ * 可以按 ID 范围把表分成多片，每片在单独的线程和连接上读取，最后再统一比较父子的指纹。
+ */
+public final class ClosureVerifier {
+
+	/** 最多保留多少条违规记录用于输出，总数仍会统计。 */
+	private static final int MAX_SAMPLES = 100;
+
+	public record Violation(long id, String message) {}
+
+	public record Report(long nodes, long rows, long violations, List<Violation> samples) {}
+
+	/**
+	 * 一个 ID 范围内所有节点的摘要，因为按 descendant 排序读取，ids 是有序的。
+	 */
+	private static final class Shard {
+
+		final long min;
+		final long max;
+
+		long[] ids;
+		long[] parents;
+		long[] prints;
+		long[] shifted;
+		int size;
+
+		long rows;
+		final List<Violation> violations = new ArrayList<>();
+		long violationCount;
+
+		Shard(long min, long max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		/**
+		 * 按节点数分配数组。如果读取前有别的连接插入了节点，add 时再扩容。
+		 */
+		void allocate(int capacity) {
+			ids = new long[capacity];
+			parents = new long[capacity];
+			prints = new long[capacity];
+			shifted = new long[capacity];
+		}
+
+		void add(long id, long parent, long print, long shift) {
+			if (size == ids.length) {
+				var capacity = size + (size >> 3) + 16;
+				ids = Arrays.copyOf(ids, capacity);
+				parents = Arrays.copyOf(parents, capacity);
+				prints = Arrays.copyOf(prints, capacity);
+				shifted = Arrays.copyOf(shifted, capacity);
+			}
+			ids[size] = id;
+			parents[size] = parent;
+			prints[size] = print;
+			shifted[size] = shift;
+			size++;
+		}
+
+		void report(long id, String message) {
+			if (violations.size() < MAX_SAMPLES) {
+				violations.add(new Violation(id, message));
+			}
+			violationCount++;
+		}
+
+		int indexOf(long id) {
+			return Arrays.binarySearch(ids, 0, size, id);
+		}
+	}
+
+	public static void run(int threads) throws Exception {
+		var manager = DBManager.open();
+		if (!manager.tableExists("category_tree")) {
+			System.out.println("category_tree 表不存在，请检查配置文件中的数据库。");
+			return;
+		}
+
+		var start = System.nanoTime();
+		var report = verify(manager, threads);
+		var seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("检查了 %d 个节点，%d 行，用时 %.2f 秒。%n", report.nodes, report.rows, seconds);
+		if (report.violations == 0) {
+			System.out.println("没有发现问题。");
+			return;
+		}
+		System.out.printf("发现 %d 处问题：%n", report.violations);
+		for (var violation : report.samples) {
+			System.out.printf("  节点 %d：%s%n", violation.id, violation.message);
+		}
+		if (report.samples.size() < report.violations) {
+			System.out.printf("  ……只显示了前 %d 条%n", report.samples.size());
+		}
+	}
+
+	/**
+	 * @param threads 分片数，大于 1 时每片使用单独的连接。Sqlite 总是只用一个分片，因为内存数据库无法多连接共享。
+	 */
+	public static Report verify(DBManager manager, int threads) throws Exception {
+		if (threads < 1) {
+			throw new IllegalArgumentException("线程数必须大于 0");
+		}
+		if (manager.getDialect().equals("sqlite")) {
+			threads = 1;
+		}
+
+		var shards = split(manager.getConnection(), threads);
+		if (shards.size() == 1) {
+			scan(manager.getConnection(), shards.get(0));
+		} else {
+			var executor = Executors.newFixedThreadPool(shards.size());
+			try {
+				var tasks = new ArrayList<Callable<Void>>();
+				for (var shard : shards) {
+					tasks.add(() -> {
+						try (var connection = manager.newConnection()) {
+							scan(connection, shard);
+						}
+						return null;
+					});
+				}
+				for (var future : executor.invokeAll(tasks)) {
+					future.get();
+				}
+			} finally {
+				executor.shutdown();
+			}
+		}
+
+		return checkParents(shards);
+	}
+
+	/**
+	 * 按 descendant 的取值范围平均分片，ID 分布不均时各片的大小会有差别。
+	 */
+	private static List<Shard> split(Connection connection, int count) throws SQLException {
+		@Cleanup var statement = connection.createStatement();
+		@Cleanup var results = statement.executeQuery("SELECT MIN(descendant), MAX(descendant) FROM category_tree");
+		results.next();
+		var min = results.getLong(1);
+		var max = results.getLong(2);
+
+		var step = Math.max((max - min) / count + 1, 1);
+		var shards = new ArrayList<Shard>();
+		for (var lo = min; lo <= max; lo += step) {
+			shards.add(new Shard(lo, Math.min(lo + step - 1, max)));
+		}
+		if (shards.isEmpty()) {
+			shards.add(new Shard(0, 0));
+		}
+		return shards;
+	}
+
+	/**
+	 * 流式读取一个分片，检查每个节点自身的记录，并计算指纹。
+	 */
+	private static void scan(Connection connection, Shard shard) throws SQLException {
+		// PostgreSQL 只有在事务中才会按 fetchSize 分批读取，否则一次全部读进内存。
+		var autoCommit = connection.getAutoCommit();
+		if (autoCommit) {
+			connection.setAutoCommit(false);
+		}
+		try {
+			@Cleanup var count = connection.prepareStatement(
+					"SELECT COUNT(DISTINCT descendant) FROM category_tree WHERE descendant BETWEEN ? AND ?");
+			count.setLong(1, shard.min);
+			count.setLong(2, shard.max);
+			@Cleanup var counted = count.executeQuery();
+			counted.next();
+			shard.allocate(counted.getInt(1));
+
+			@Cleanup var statement = connection.prepareStatement(
+					"SELECT descendant, ancestor, distance FROM category_tree " +
+							"WHERE descendant BETWEEN ? AND ? ORDER BY descendant, distance");
+			statement.setFetchSize(10000);
+			statement.setLong(1, shard.min);
+			statement.setLong(2, shard.max);
+
+			@Cleanup var results = statement.executeQuery();
+			var node = new NodeState(shard);
+			while (results.next()) {
+				var id = results.getLong(1);
+				if (id != node.id) {
+					node.finish();
+					node.id = id;
+				}
+				node.accept(results.getLong(2), results.getInt(3));
+				shard.rows++;
+			}
+			node.finish();
+		} finally {
+			if (autoCommit) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		}
+	}
+
+	/**
+	 * 正在读取的节点，它的所有记录是连续的。
+	 */
+	private static final class NodeState {
+
+		final Shard shard;
+
+		long id = -1;
+		int selfLinks;
+		int parentLinks;
+		long parent;
+		long print;
+		long shift;
+		boolean empty = true;
+
+		NodeState(Shard shard) {
+			this.shard = shard;
+		}
+
+		void accept(long ancestor, int distance) {
+			empty = false;
+			print += hash(ancestor, distance);
+			if (distance == 0) {
+				if (ancestor == id) {
+					selfLinks++;
+				} else {
+					shard.report(id, "存在距离为 0 的非自身记录，祖先为 " + ancestor);
+				}
+			} else {
+				shift += hash(ancestor, distance - 1);
+				if (distance == 1) {
+					parentLinks++;
+					parent = ancestor;
+				}
+			}
+		}
+
+		void finish() {
+			if (!empty) {
+				if (selfLinks != 1) {
+					shard.report(id, "自身链接有 " + selfLinks + " 条");
+				}
+				if (id == 0 && parentLinks != 0) {
+					shard.report(id, "根节点不应有父节点");
+				} else if (id == 0 && print != hash(0, 0)) {
+					// 归纳的起点，根节点只能有 (0, 0, 0) 这一条记录，否则其它节点的比较都没有意义。
+					shard.report(id, "根节点除了自身链接外还有其它记录");
+				} else if (id != 0 && parentLinks != 1) {
+					shard.report(id, "距离为 1 的父节点记录有 " + parentLinks + " 条");
+				}
+				shard.add(id, parentLinks == 1 ? parent : -1, print, shift);
+			}
+			selfLinks = parentLinks = 0;
+			print = shift = 0;
+			empty = true;
+		}
+	}
+
+	/**
+	 * 比较每个节点去掉自身后的指纹与父节点的指纹。
+	 */
+	private static Report checkParents(List<Shard> shards) {
+		for (var shard : shards) {
+			for (int i = 0; i < shard.size; i++) {
+				var parent = shard.parents[i];
+				if (parent < 0) {
+					continue; // 根节点，或者已经报告过父节点的问题。
+				}
+				var owner = findShard(shards, parent);
+				var j = owner == null ? -1 : owner.indexOf(parent);
+				if (j < 0) {
+					shard.report(shard.ids[i], "父节点 " + parent + " 没有任何记录");
+				} else if (owner.prints[j] != shard.shifted[i]) {
+					shard.report(shard.ids[i], "祖先链与父节点 " + parent + " 的不一致");
+				}
+			}
+		}
+
+		long nodes = 0, rows = 0, count = 0;
+		var samples = new ArrayList<Violation>();
+		for (var shard : shards) {
+			nodes += shard.size;
+			rows += shard.rows;
+			count += shard.violationCount;
+			for (var v : shard.violations) {
+				if (samples.size() < MAX_SAMPLES) {
+					samples.add(v);
+				}
+			}
+		}
+		return new Report(nodes, rows, count, samples);
+	}
+
+	private static Shard findShard(List<Shard> shards, long id) {
+		for (var shard : shards) {
+			if (id >= shard.min && id <= shard.max) {
+				return shard;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 每行的哈希值，指纹是它们的和。用 SplitMix64 的混合函数，保证不同的行几乎不会抵消。
+	 */
+	private static long hash(long ancestor, int distance) {
+		var z = ancestor * 0x9E3779B97F4A7C15L + distance;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -1,8 +1,14 @@
 package kaciras;
 
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 import javax.sql.DataSource;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 import java.sql.SQLException;
 import java.util.List;
 
@@ -15,7 +21,15 @@ import java.util.List;
 @RequiredArgsConstructor
 public final class Controller {
 
+	/**
+	 * 标记修改分类的方法，Dispatcher 会让它们互斥执行。
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.METHOD)
+	public @interface Mutation {}
+
 	private final DataSource dataSource;
+	@Getter(AccessLevel.PACKAGE)
 	private final Repository repository;
 
 	public String getDatabaseName() throws SQLException {
@@ -27,10 +41,11 @@ public final class Controller {
 		}
 	}
 
-	public List<ListQueryVO> getAll() {
-		return repository.getAllForDemo();
+	public Iterable<ListQueryVO> getAll() {
+		return repository.streamAllForDemo();
 	}
 
+	@Mutation
 	public Category create(int parentId, String name) {
 		var category = new Category();
 		category.setName(name);
@@ -38,6 +53,7 @@ public final class Controller {
 		return category;
 	}
 
+	@Mutation
 	public void update(int id, String newName) {
 		var category = repository.findById(id);
 		category.setName(newName);
@@ -48,6 +64,7 @@ public final class Controller {
 		return repository.findById(id).getLevel();
 	}
 
+	@Mutation
 	public void move(int id, int parent, boolean single) {
 		var category = repository.findById(id);
 		var newParent = repository.findById(parent);
@@ -59,6 +76,7 @@ public final class Controller {
 		}
 	}
 
+	@Mutation
 	public void delete(int id, boolean single) {
 		if (single) {
 			repository.delete(id);
@@ -72,11 +90,27 @@ public final class Controller {
 		return repository.findById(descendant).getPath(ans);
 	}
 
-	public List<Category> getTree(int id) {
-		return repository.findById(id).getTree();
+	public Iterable<Category> getTree(int id) {
+		return repository.findById(id).streamTree();
 	}
 
 	public List<Category> getSubLayer(int id, int depth) {
 		return repository.findById(id).getSubLayer(depth);
 	}
+
+	public List<LevelQueryVO> getLevels(int id, int minDepth, int maxDepth) {
+		return repository.findById(id).getLevels(minDepth, maxDepth);
+	}
+
+	public List<LevelQueryVO> getTreeToDepth(int id, int maxDepth) {
+		return repository.findById(id).getTree(maxDepth);
+	}
+
+	public Page getSubLayerPage(int id, int depth, String token, int size) {
+		return repository.findById(id).getSubLayer(depth, token, size);
+	}
+
+	public Page getTreePage(int id, String token, int size) {
+		return repository.findById(id).getTree(token, size);
+	}
 }
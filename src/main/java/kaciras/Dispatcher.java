@@ -1,27 +1,55 @@
 package kaciras;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.sun.net.httpserver.HttpExchange;
 import lombok.AllArgsConstructor;
-import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.cursor.Cursor;
+import org.apache.ibatis.session.SqlSessionManager;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serial;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.Arrays;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 一个简单的控制器绑定实现，将 HTTP 请求转为对控制器方法的调用。
  * <p>
  * 请求使用 POST 方法，路径 为 /api/[方法名]，其中[方法名]是 Controller 类中方法的名字；
- * 参数以 JSON 数组的形式序列化，作为请求体；响应也使用 JSON。
+ * 参数以 JSON 对象的形式序列化，键为参数名，作为请求体；响应也使用 JSON。
  * <p>
- * 例如：POST /api/update [1, "new name"]
+ * 例如：POST /api/update {"id": 1, "newName": "new name"}
  * 会调用 Controller.update 方法，参数分别为 1 和 "new name"。
+ * <p>
+ * 每个控制器方法在启动时就准备好方法句柄和参数的反序列化器，处理请求时不再使用反射。
+ * 如果控制器返回的是 Mybatis 的 Cursor，则以分块传输的方式边读边写，不在内存中保存整个结果。
+ * <p>
+ * 每个请求在自己的 SqlSession 中执行，成功后提交，控制器抛出异常则回滚。
+ * 修改操作提交后还会调用 Repository.committed() 清除其它请求在提交前缓存的旧数据，
+ * 回滚后则调用 Repository.discardUncommitted()，让索引、快照和缓存回到数据库中的状态。
+ * 访问数据库前要经过 RequestGate，标记了 Controller.Mutation 的方法之间串行执行，排队被拒绝时返回 503。
+ * 请求 /api/metrics 返回 RequestGate 的统计信息。
+ * <p>
+ * 请求 /api/batch 可以一次调用多个方法，请求体为 [{"method": "getLevel", "params": {"id": 1}}, ...]，
+ * 按顺序在同一个会话（事务）中执行，全部成功才提交，返回每个调用的结果、SQL 和耗时。
+ * 任何一个出错则整体回滚，错误信息中的 index 指出是第几个调用。批量中有修改方法时整个批量持有写锁，
+ * 与其它修改串行执行；只读的批量不拿锁，各个查询能否看到同一个状态取决于数据库的隔离级别。
+ * Category.mapper 需要来自同一个 SqlSessionManager，这样它的调用才会落在当前请求的会话上。
  */
 public final class Dispatcher implements UncheckedHttpHandler {
 
@@ -32,75 +60,381 @@ public final class Dispatcher implements UncheckedHttpHandler {
 		public final Object data;
 	}
 
+	@AllArgsConstructor
+	private static final class BatchView {
+		public final long time;
+		public final ResultView[] results;
+	}
+
 	@AllArgsConstructor
 	private static final class ErrorView {
 		public final String type;
 		public final String message;
+
+		/** 批量调用中出错的是第几个，其它请求没有该字段。 */
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public final Integer index;
+
+		ErrorView(String type, String message) {
+			this(type, message, null);
+		}
 	}
 
+	/**
+	 * 批量调用中第 index 个控制器方法抛出了异常，cause 是控制器的异常。
+	 */
+	private static final class BatchFailure extends Exception {
+
+		@Serial
+		private static final long serialVersionUID = 1L;
+
+		final int index;
+
+		BatchFailure(int index, Throwable cause) {
+			super(cause);
+			this.index = index;
+		}
+	}
+
+	/** 一次批量调用的方法数上限。 */
+	private static final int MAX_BATCH_SIZE = 100;
+
 	private final TrackingDataSource dataSource;
-	private final SqlSession session;
+	private final SqlSessionManager sessions;
 	private final Controller controller;
+	private final RequestGate gate;
 
 	private final ObjectMapper objectMapper;
-	private final Map<String, Method> methodTable;
+	private final Map<String, Endpoint> endpoints;
+
+	/**
+	 * 启动时为每个控制器方法准备好的调用信息，处理请求时不再使用反射。
+	 *
+	 * @param invoker 已绑定控制器的方法句柄，类型为 (Object[])Object
+	 * @param names   参数名，与 readers 和调用时的参数顺序一致
+	 * @param readers 每个参数类型的反序列化器
+	 * @param write   是否为修改操作
+	 */
+	private record Endpoint(MethodHandle invoker, String[] names, ObjectReader[] readers, boolean write) {}
+
+	/**
+	 * 批量调用中的一个调用，参数已经按顺序反序列化好。
+	 */
+	private record Call(Endpoint endpoint, Object[] args) {}
 
-	public Dispatcher(TrackingDataSource dataSource, SqlSession session, Controller controller) {
+	public Dispatcher(TrackingDataSource dataSource, SqlSessionManager sessions, Controller controller, RequestGate gate) throws IllegalAccessException {
 		this.dataSource = dataSource;
-		this.session = session;
+		this.sessions = sessions;
 		this.controller = controller;
+		this.gate = gate;
 
 		objectMapper = new ObjectMapper()
 				.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
 				.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
 
-		methodTable = Arrays.stream(Controller.class.getDeclaredMethods())
-				.collect(Collectors.toMap(Method::getName, Function.identity()));
+		endpoints = new HashMap<>();
+		var lookup = MethodHandles.lookup();
+		for (var method : Controller.class.getDeclaredMethods()) {
+			if (!Modifier.isPublic(method.getModifiers())) {
+				continue;
+			}
+			var params = method.getParameters();
+			var names = new String[params.length];
+			var readers = new ObjectReader[params.length];
+			for (int i = 0; i < params.length; i++) {
+				names[i] = params[i].getName();
+				readers[i] = objectMapper.readerFor(params[i].getType());
+			}
+
+			// 绑定控制器，把参数展开成数组，并统一为 (Object[])Object，这样可以用 invokeExact 调用。
+			var invoker = lookup.unreflect(method)
+					.bindTo(controller)
+					.asSpreader(Object[].class, params.length)
+					.asType(MethodType.methodType(Object.class, Object[].class));
+
+			var write = method.isAnnotationPresent(Controller.Mutation.class);
+			endpoints.put(method.getName(), new Endpoint(invoker, names, readers, write));
+		}
 	}
 
 	@Override
 	public void handle(HttpExchange exchange) throws Exception {
-		var endpoint = exchange.getRequestURI().getPath().substring(5);
-		var method = methodTable.get(endpoint);
+		var path = exchange.getRequestURI().getPath().substring(5);
+		var endpoint = endpoints.get(path);
 
-		if (method != null) {
-			invoke(exchange, method);
+		if (endpoint != null) {
+			invoke(exchange, endpoint);
+		} else if (path.equals("batch")) {
+			invokeBatch(exchange);
+		} else if (path.equals("metrics")) {
+			respond(exchange, 200, gate.getMetrics());
 		} else {
 			exchange.sendResponseHeaders(404, 0);
 		}
 	}
 
-	private void invoke(HttpExchange exchange, Method method) throws Exception {
-		var body = objectMapper.readTree(exchange.getRequestBody());
+	private void invoke(HttpExchange exchange, Endpoint endpoint) throws Exception {
+		var args = readArguments(exchange.getRequestBody(), endpoint);
+		try {
+			var result = gate.execute(endpoint.write, () -> call(exchange, endpoint, args));
+			if (result != null) {
+				respond(exchange, 200, result);
+			}
+		} catch (InvocationTargetException ex) {
+			var cause = ex.getCause();
+			var type = cause.getClass().getSimpleName();
+			var message = cause.getMessage();
+			ex.printStackTrace();
+			respond(exchange, 400, new ErrorView(type, message));
+		} catch (RejectedExecutionException ex) {
+			respond(exchange, 503, new ErrorView(ex.getClass().getSimpleName(), ex.getMessage()));
+		}
+	}
+
+	private void invokeBatch(HttpExchange exchange) throws Exception {
+		var calls = readBatch(exchange.getRequestBody());
+		var write = calls.stream().anyMatch(call -> call.endpoint.write);
+		try {
+			respond(exchange, 200, gate.execute(write, () -> callBatch(calls)));
+		} catch (BatchFailure ex) {
+			var cause = ex.getCause();
+			var type = cause.getClass().getSimpleName();
+			ex.printStackTrace();
+			respond(exchange, 400, new ErrorView(type, cause.getMessage(), ex.index));
+		} catch (RejectedExecutionException ex) {
+			respond(exchange, 503, new ErrorView(ex.getClass().getSimpleName(), ex.getMessage()));
+		}
+	}
 
-		var params = method.getParameters();
-		var args = new Object[params.length];
-		for (var i = 0; i < args.length; i++) {
-			var type = params[i].getType();
-			var name = params[i].getName();
+	/**
+	 * 解析批量调用的请求体，在拿到 RequestGate 的许可之前就找到所有方法并反序列化好参数，
+	 * 有未知的方法或缺少参数时不执行任何调用。
+	 */
+	private List<Call> readBatch(InputStream body) throws IOException, ReflectiveOperationException {
+		var calls = new ArrayList<Call>();
+		try (var parser = objectMapper.createParser(body)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new ReflectiveOperationException("请求体必须是 JSON 数组");
+			}
+			for (var token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+				if (token != JsonToken.START_OBJECT) {
+					throw new ReflectiveOperationException("批量调用的每一项必须是 JSON 对象");
+				}
+				if (calls.size() == MAX_BATCH_SIZE) {
+					throw new ReflectiveOperationException("一次最多调用 " + MAX_BATCH_SIZE + " 个方法");
+				}
 
-			var jsonValue = body.get(name);
-			if (jsonValue == null) {
-				throw new ReflectiveOperationException("缺少参数：" + name);
+				// 键的顺序不固定，params 可能在 method 之前，所以先读成树。
+				JsonNode node = parser.readValueAsTree();
+				var method = node.path("method").asText();
+				var endpoint = endpoints.get(method);
+				if (endpoint == null) {
+					throw new ReflectiveOperationException("未知的方法：" + method);
+				}
+				try (var params = node.path("params").traverse(objectMapper)) {
+					calls.add(new Call(endpoint, readArguments(params, endpoint)));
+				}
 			}
-			args[i] = objectMapper.treeToValue(jsonValue, type);
 		}
+		return calls;
+	}
 
-		dataSource.reset();
+	/**
+	 * 流式解析请求体，每个字段按名字找到对应的参数，直接反序列化为参数的类型，不构建中间的 JSON 树。
+	 * 多余的字段被忽略，请求体为空等同于空对象。
+	 */
+	private Object[] readArguments(InputStream body, Endpoint endpoint) throws IOException, ReflectiveOperationException {
+		try (var parser = objectMapper.createParser(body)) {
+			return readArguments(parser, endpoint);
+		}
+	}
+
+	private static Object[] readArguments(JsonParser parser, Endpoint endpoint) throws IOException, ReflectiveOperationException {
+		var names = endpoint.names;
+		var args = new Object[names.length];
+		var found = new boolean[names.length];
 
+		var token = parser.nextToken();
+		if (token != null && token != JsonToken.START_OBJECT) {
+			throw new ReflectiveOperationException("参数必须是 JSON 对象");
+		}
+		while (token != null && parser.nextToken() == JsonToken.FIELD_NAME) {
+			var name = parser.currentName();
+			parser.nextToken();
+
+			var i = indexOf(names, name);
+			if (i < 0) {
+				parser.skipChildren();
+			} else {
+				args[i] = endpoint.readers[i].readValue(parser);
+				found[i] = true;
+			}
+		}
+
+		for (int i = 0; i < names.length; i++) {
+			if (!found[i]) {
+				throw new ReflectiveOperationException("缺少参数：" + names[i]);
+			}
+		}
+		return args;
+	}
+
+	/**
+	 * 控制器的参数最多只有几个，线性查找比哈希表更快。
+	 */
+	private static int indexOf(String[] names, String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 在新的会话中调用控制器的方法，持有 RequestGate 的许可期间只做这些，序列化和发送响应都在之后。
+	 * 但如果返回的是游标，则必须在会话关闭前读完，所以直接在这里流式输出响应，然后返回 null。
+	 *
+	 * 提交之前的任何异常（包括输出游标和提交本身失败）都会回滚。
+	 *
+	 * @throws InvocationTargetException 包装了控制器抛出的异常
+	 */
+	private ResultView call(HttpExchange exchange, Endpoint endpoint, Object[] args) throws Exception {
+		dataSource.reset();
+		sessions.startManagedSession();
 		try {
 			var start = System.currentTimeMillis();
-			var data = method.invoke(controller, args);
-			session.commit();
+			var data = invokeExact(endpoint.invoker, args);
+			if (data instanceof Cursor<?> cursor) {
+				stream(exchange, cursor, start);
+				commit(endpoint.write);
+				return null;
+			}
+			commit(endpoint.write);
 			var time = System.currentTimeMillis() - start;
-			var sqls = dataSource.getExecutedSql();
-			respond(exchange, 200, new ResultView(sqls, time, data));
-		} catch (InvocationTargetException ex) {
-			var cause = ex.getCause();
-			var type = cause.getClass().getSimpleName();
-			var message = cause.getMessage();
-			ex.printStackTrace();
-			respond(exchange, 400, new ErrorView(type, message));
+			return new ResultView(dataSource.getExecutedSql(), time, data);
+		} catch (Throwable ex) {
+			rollback(endpoint.write, ex);
+			throw ex;
+		} finally {
+			sessions.close();
+		}
+	}
+
+	/**
+	 * 在同一个会话中依次调用，每个调用前清空 SQL 记录，这样每个结果只包含自己执行的语句。
+	 * 游标在会话关闭前读到列表里，批量调用的结果不流式输出。
+	 *
+	 * 提交之前的任何异常都会回滚所有调用。
+	 *
+	 * @throws BatchFailure 包装了控制器抛出的异常
+	 */
+	private BatchView callBatch(List<Call> calls) throws Exception {
+		var write = calls.stream().anyMatch(call -> call.endpoint.write);
+		sessions.startManagedSession();
+		try {
+			var start = System.currentTimeMillis();
+			var results = new ResultView[calls.size()];
+
+			for (int i = 0; i < results.length; i++) {
+				var call = calls.get(i);
+				dataSource.reset();
+				var callStart = System.currentTimeMillis();
+				Object data;
+				try {
+					data = invokeExact(call.endpoint.invoker, call.args);
+				} catch (InvocationTargetException ex) {
+					throw new BatchFailure(i, ex.getCause());
+				}
+				if (data instanceof Cursor<?> cursor) {
+					data = drain(cursor);
+				}
+				var time = System.currentTimeMillis() - callStart;
+				results[i] = new ResultView(dataSource.getExecutedSql(), time, data);
+			}
+
+			commit(write);
+			return new BatchView(System.currentTimeMillis() - start, results);
+		} catch (Throwable ex) {
+			rollback(write, ex);
+			throw ex;
+		} finally {
+			sessions.close();
+		}
+	}
+
+	/**
+	 * 提交当前会话，执行过修改操作的还要在提交后再让缓存失效一次，见 Repository.committed()。
+	 */
+	private void commit(boolean write) {
+		sessions.commit();
+		if (write) {
+			controller.getRepository().committed();
+		}
+	}
+
+	/**
+	 * 回滚当前会话，如果执行过修改操作，内存中的索引、快照和缓存可能已经包含了未提交的修改，也要丢弃。
+	 * 修改操作持有写锁，重新加载期间不会有其它修改插进来，但并发的查询可能短暂地读到未提交的修改。
+	 * 回滚时的异常附加到 cause 上，不覆盖导致回滚的异常。
+	 */
+	private void rollback(boolean write, Throwable cause) {
+		try {
+			sessions.rollback(true);
+		} catch (RuntimeException ex) {
+			cause.addSuppressed(ex);
+		}
+		if (write) {
+			try {
+				controller.getRepository().discardUncommitted();
+			} catch (RuntimeException ex) {
+				cause.addSuppressed(ex);
+			}
+		}
+	}
+
+	private static List<Object> drain(Cursor<?> cursor) throws IOException {
+		try (cursor) {
+			var list = new ArrayList<Object>();
+			cursor.forEach(list::add);
+			return list;
+		}
+	}
+
+	/**
+	 * 方法句柄直接抛出控制器的异常，这里包装一下，与反射调用的行为保持一致。
+	 */
+	private static Object invokeExact(MethodHandle invoker, Object[] args) throws InvocationTargetException {
+		try {
+			return (Object) invoker.invokeExact(args);
+		} catch (Throwable e) {
+			throw new InvocationTargetException(e);
+		}
+	}
+
+	/**
+	 * 以分块传输的方式边读边写，格式与 ResultView 相同，只是 data 在前。
+	 * 响应头发出后就无法再返回错误状态，读取中途出错只能断开连接。
+	 */
+	private void stream(HttpExchange exchange, Cursor<?> cursor, long start) throws IOException {
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, 0);
+
+		try (cursor; var generator = objectMapper.createGenerator(exchange.getResponseBody())) {
+			generator.writeStartObject();
+			generator.writeArrayFieldStart("data");
+			for (var row : cursor) {
+				generator.writeObject(row);
+			}
+			generator.writeEndArray();
+
+			generator.writeNumberField("time", System.currentTimeMillis() - start);
+			generator.writeArrayFieldStart("sqls");
+			for (var sql : dataSource.getExecutedSql()) {
+				generator.writeString(sql);
+			}
+			generator.writeEndArray();
+			generator.writeEndObject();
 		}
 	}
 
@@ -0,0 +1,18 @@
+package kaciras;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 按级别范围查询子树的结果，比 Category 多了父节点和相对深度，客户端据此拼出部分子树。
+ */
+@Getter
+@Setter
+public final class LevelQueryVO {
+	private int id;
+	private Integer parentId;
+	private String name;
+
+	/** 相对于查询起点的级数，起点自身为 0。 */
+	private int depth;
+}
@@ -6,9 +6,11 @@ import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.SimpleFileServer;
 import kaciras.setup.DBManager;
 import kaciras.setup.SimpleDataset;
+import org.apache.ibatis.session.SqlSessionManager;
 
 import java.net.InetSocketAddress;
 import java.nio.file.Path;
+import java.util.concurrent.Executors;
 
 public final class Main {
 
@@ -42,21 +44,48 @@ public final class Main {
 			}
 		}
 
-		// 创建 Mybatis 的 SqlSession
-		var tracked = new TrackingDataSource(manager.getConnection());
-		var session = Utils.createSqlSession(tracked);
+		// Sqlite 内存数据库只能用一个连接，其它情况使用连接池。玩完记得把表删了。
+		var properties = manager.getProperties();
+		TrackingDataSource tracked;
+		int maxRunning;
+		if (manager.isSingleConnection()) {
+			tracked = new TrackingDataSource(manager.getConnection());
+			maxRunning = 1;
+			Runtime.getRuntime().addShutdownHook(new Thread(manager::dropTables));
+		} else {
+			var pool = manager.createPool();
+			tracked = new TrackingDataSource(pool);
+			maxRunning = pool.getPoolMaximumActiveConnections();
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				pool.forceCloseAll();
+				manager.dropTables();
+			}));
+		}
 
-		// 玩完记得把表删了。
-		Runtime.getRuntime().addShutdownHook(new Thread(manager::dropTables));
+		// 创建 Mybatis 的会话管理器，每个请求使用单独的 SqlSession，Mapper 会自动使用当前请求的会话。
+		var sessions = SqlSessionManager.newInstance(Utils.createSessionFactory(tracked));
 
 		// 获取 SqlMapper，创建仓库和控制器对象。
-		var mapper = session.getMapper(CategoryMapper.class);
+		var mapper = sessions.getMapper(CategoryMapper.class);
 		Category.mapper = mapper;
-		var controller = new Controller(tracked, new Repository(mapper));
+		if (Boolean.parseBoolean(properties.getProperty("TREE_INDEX"))) {
+			Category.index = TreeIndex.load(mapper);
+		}
+		if (Boolean.parseBoolean(properties.getProperty("TREE_SNAPSHOT"))) {
+			Category.snapshots = VersionedTree.load(mapper);
+		}
+		var cacheSize = properties.getProperty("ENTITY_CACHE_SIZE", "0");
+		var controller = new Controller(tracked, new Repository(mapper, Integer.parseInt(cacheSize)));
+
+		// 每个请求在一个虚拟线程中执行，同时访问数据库的请求数不超过连接数，其余的排队。
+		var gate = new RequestGate(maxRunning,
+				Integer.parseInt(properties.getProperty("MAX_QUEUED", "1000")),
+				Long.parseLong(properties.getProperty("QUEUE_TIMEOUT", "10000")));
 
 		// 创建 HTTP 服务器，并注册 API 请求处理器。
 		var server = HttpServer.create(new InetSocketAddress(HOST_NAME, PORT), 0);
-		var api = new Dispatcher(tracked, session, controller);
+		server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		var api = new Dispatcher(tracked, sessions, controller, gate);
 		server.createContext("/api/", wrapHandler(api));
 
 		// 让 HTTP 服务器处理 web 目录下的静态文件。
@@ -71,7 +100,14 @@ public final class Main {
 		if (args.length == 0) {
 			runDemo();
 		} else if (args[0].equals("benchmark")) {
-			Benchmark.run();
+			if (args.length > 1 && args[1].equals("writes")) {
+				WriteBenchmark.run();
+			} else {
+				Benchmark.run();
+			}
+		} else if (args[0].equals("verify")) {
+			var threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+			ClosureVerifier.run(threads);
 		} else {
 			System.err.println("Unknown command: " + args[0]);
 		}
@@ -0,0 +1,63 @@
+package kaciras;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 分页查询的一页结果，分类按 ID 升序排列。
+ * <p>
+ * 使用键集分页：令牌记录的是本页最后一个分类的 ID，下一页从它之后开始查，
+ * 所以翻到多深都只需扫描索引中的一小段，翻页期间插入或删除分类也不会让结果重复或遗漏。
+ *
+ * @param items 本页的分类
+ * @param next  下一页的令牌，没有更多时为 null
+ */
+public record Page(List<Category> items, String next) {
+
+	/** 每页的最大数量。 */
+	public static final int MAX_SIZE = 1000;
+
+	static void checkSize(int size) {
+		Utils.checkPositive(size, "size");
+		if (size > MAX_SIZE) {
+			throw new IllegalArgumentException("每页最多 " + MAX_SIZE + " 个，请求的是 " + size);
+		}
+	}
+
+	/**
+	 * 解析令牌，返回上一页最后的 ID，令牌为 null 表示第一页，返回 -1。
+	 *
+	 * @throws IllegalArgumentException 如果令牌无效
+	 */
+	static int decode(String token) {
+		if (token == null) {
+			return -1;
+		}
+		try {
+			var bytes = Base64.getUrlDecoder().decode(token);
+			if (bytes.length == Integer.BYTES) {
+				return ByteBuffer.wrap(bytes).getInt();
+			}
+		} catch (IllegalArgumentException ignore) {
+			// 统一在下面抛出异常。
+		}
+		throw new IllegalArgumentException("无效的分页令牌：" + token);
+	}
+
+	/**
+	 * 由多查了一个的结果创建分页，多出来的那个存在就说明还有下一页。
+	 *
+	 * @param rows 按 ID 升序查询的 size + 1 个分类
+	 */
+	static Page of(List<Category> rows, int size) {
+		if (rows.size() <= size) {
+			return new Page(rows, null);
+		}
+		var items = rows.subList(0, size);
+		var last = items.get(size - 1).getId();
+		var token = Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(ByteBuffer.allocate(Integer.BYTES).putInt(last).array());
+		return new Page(items, token);
+	}
+}
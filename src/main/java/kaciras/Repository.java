@@ -1,9 +1,14 @@
 package kaciras;
 
-import lombok.RequiredArgsConstructor;
+import lombok.Getter;
 import org.apache.ibatis.exceptions.PersistenceException;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * 分类存储，提供对分类增删改查的支持。
@@ -12,14 +17,47 @@ import java.util.List;
  * 分类之间的关系可以看做一棵多叉数。
  * <p>
  * 分类树有一个根节点，其 ID 为 0，不可移动或删除。
+ * <p>
+ * 如果设置了 Category.index，修改方法会同步更新索引，删除时也用它判断分类是否存在。
+ * 如果设置了 Category.snapshots，修改方法会发布新的快照。
+ * 如果启用了缓存，findById 会先查缓存，修改分类的方法会让相应的缓存失效，提交后要调用 committed() 再失效一次。
+ * 这三者都不感知事务，回滚后要调用 discardUncommitted()。
  *
  * @author Kaciras
  */
-@RequiredArgsConstructor
 public class Repository {
 
+	/**
+	 * 批量操作时每条语句包含的最大行数，数据库对参数的个数有限制，不能一次全部插入。
+	 */
+	private static final int BATCH_SIZE = 1000;
+
 	private final CategoryMapper mapper;
 
+	/**
+	 * 分类实体的缓存，未启用时为 null。
+	 */
+	@Getter
+	private final CategoryCache cache;
+
+	/**
+	 * 数据库是否支持 INSERT ... RETURNING，第一次批量插入时查询。
+	 */
+	private volatile Boolean returning;
+
+	public Repository(CategoryMapper mapper) {
+		this(mapper, 0);
+	}
+
+	/**
+	 * @param cacheSize 缓存的分类数量上限，为 0 则不缓存
+	 */
+	public Repository(CategoryMapper mapper, int cacheSize) {
+		Utils.checkNotNegative(cacheSize, "cacheSize");
+		this.mapper = mapper;
+		this.cache = cacheSize > 0 ? new CategoryCache(cacheSize) : null;
+	}
+
 	/**
 	 * 根据指定的 ID，查询出分类对象。
 	 *
@@ -28,7 +66,7 @@ public class Repository {
 	 */
 	public Category findById(int id) {
 		Utils.checkNotNegative(id, "id");
-		return mapper.selectById(id);
+		return cache != null ? cache.get(id, mapper::selectById) : mapper.selectById(id);
 	}
 
 	/**
@@ -56,6 +94,168 @@ public class Repository {
 		} catch (PersistenceException ex) {
 			throw new IllegalArgumentException(ex);
 		}
+		if (cache != null) {
+			cache.invalidate(category.getId());
+		}
+		if (Category.index != null) {
+			Category.index.added(category.getId(), parent.getId());
+		}
+		if (Category.snapshots != null) {
+			Category.snapshots.update(tree -> tree.added(category.getId(), parent.getId(), category.getName()));
+		}
+	}
+
+	/**
+	 * 在同一个分类下批量新增分类，自动生成并设置 ID 属性。
+	 * <p>
+	 * 每 BATCH_SIZE 个分类只需两条语句，而不是每个分类三条，适合大量导入。
+	 *
+	 * @param categories 分类实体对象列表
+	 * @param parent     父分类
+	 * @return 生成的 ID，与 categories 的顺序一致
+	 */
+	public int[] addAll(List<Category> categories, Category parent) {
+		if (parent == null) {
+			throw new IllegalArgumentException("parent not exists");
+		}
+		var result = new int[categories.size()];
+		try {
+			for (int i = 0; i < result.length; i += BATCH_SIZE) {
+				var batch = categories.subList(i, Math.min(i + BATCH_SIZE, result.length));
+				var ids = insertBatch(batch);
+				mapper.insertAllPaths(ids, parent.getId());
+				System.arraycopy(ids, 0, result, i, ids.length);
+			}
+		} catch (PersistenceException ex) {
+			throw new IllegalArgumentException(ex);
+		}
+		if (cache != null) {
+			cache.invalidateAll(result);
+		}
+		if (Category.index != null) {
+			for (var id : result) {
+				Category.index.added(id, parent.getId());
+			}
+		}
+		if (Category.snapshots != null) {
+			Category.snapshots.update(tree -> {
+				for (int i = 0; i < result.length; i++) {
+					tree.added(result[i], parent.getId(), categories.get(i).getName());
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * 将一棵新的子树整个嫁接到指定分类下面。
+	 * <p>
+	 * 所有的路径都在内存中计算：新节点到分支内祖先的路径来自 spec 的结构，
+	 * 到分支外的路径则是父分类的祖先链，然后与分类一起分批插入，不再逐个节点执行 INSERT ... SELECT。
+	 * 本方法不提交事务，跟其它方法一样由调用方在同一个事务中提交。
+	 *
+	 * @param parent 父分类
+	 * @param spec   子树的描述
+	 * @return 新分类的 ID，按 spec 的先序遍历顺序排列
+	 */
+	public int[] graft(Category parent, TreeSpec spec) {
+		if (parent == null) {
+			throw new IllegalArgumentException("parent not exists");
+		}
+		var chain = mapper.selectAncestorIds(parent.getId());
+		if (chain.length == 0) {
+			throw new IllegalArgumentException("parent not exists");
+		}
+
+		// 先序展开，记录每个节点在列表中的父节点下标，分支的根为 -1。
+		var categories = new ArrayList<Category>();
+		var parents = new ArrayList<Integer>();
+		var stack = new ArrayDeque<Map.Entry<TreeSpec, Integer>>();
+		stack.push(Map.entry(spec, -1));
+
+		while (!stack.isEmpty()) {
+			var entry = stack.pop();
+			var node = entry.getKey();
+			var index = categories.size();
+
+			var category = new Category();
+			category.setName(node.name());
+			categories.add(category);
+			parents.add(entry.getValue());
+
+			var children = node.children();
+			for (int i = children.size() - 1; i >= 0; i--) {
+				stack.push(Map.entry(children.get(i), index));
+			}
+		}
+
+		var ids = new int[categories.size()];
+		var rows = new ArrayList<ClosureRow>(BATCH_SIZE);
+		try {
+			for (int i = 0; i < ids.length; i += BATCH_SIZE) {
+				var batch = insertBatch(categories.subList(i, Math.min(i + BATCH_SIZE, ids.length)));
+				System.arraycopy(batch, 0, ids, i, batch.length);
+			}
+
+			for (int i = 0; i < ids.length; i++) {
+				var distance = 0;
+				for (int j = i; j != -1; j = parents.get(j)) {
+					rows.add(new ClosureRow(ids[j], ids[i], distance++));
+				}
+				for (var ancestor : chain) {
+					rows.add(new ClosureRow(ancestor, ids[i], distance++));
+				}
+				if (rows.size() >= BATCH_SIZE) {
+					mapper.insertRows(rows);
+					rows.clear();
+				}
+			}
+			if (!rows.isEmpty()) {
+				mapper.insertRows(rows);
+			}
+		} catch (PersistenceException ex) {
+			throw new IllegalArgumentException(ex);
+		}
+		if (cache != null) {
+			cache.invalidateAll(ids);
+		}
+		if (Category.index != null) {
+			for (int i = 0; i < ids.length; i++) {
+				var p = parents.get(i);
+				Category.index.added(ids[i], p == -1 ? parent.getId() : ids[p]);
+			}
+		}
+		if (Category.snapshots != null) {
+			Category.snapshots.update(tree -> {
+				for (int i = 0; i < ids.length; i++) {
+					var p = parents.get(i);
+					tree.added(ids[i], p == -1 ? parent.getId() : ids[p], categories.get(i).getName());
+				}
+			});
+		}
+		return ids;
+	}
+
+	/**
+	 * 插入一批分类，设置它们的 ID，并按顺序返回。
+	 */
+	private int[] insertBatch(List<Category> batch) {
+		if (returning == null) {
+			returning = mapper.selectReturningSupported();
+		}
+		int[] ids;
+		if (returning) {
+			ids = mapper.insertAll(batch);
+			Arrays.sort(ids);
+		} else {
+			var count = mapper.insertAllRows(batch);
+			var first = mapper.selectLastInsertId();
+			ids = IntStream.range(first, first + count).toArray();
+		}
+		for (int i = 0; i < ids.length; i++) {
+			batch.get(i).setId(ids[i]);
+		}
+		return ids;
 	}
 
 	/**
@@ -66,54 +266,114 @@ public class Repository {
 	 */
 	public void update(Category category) {
 		Utils.checkEffective(mapper.update(category));
+
+		// 在修改之后失效，这期间读到旧数据的加载不会被存入缓存。
+		if (cache != null) {
+			cache.invalidate(category.getId());
+		}
+
+		if (Category.snapshots != null) {
+			Category.snapshots.update(tree -> tree.renamed(category.getId(), category.getName()));
+		}
 	}
 
 	/**
 	 * 删除一个分类，原来在该分类下的子分类将被移动到该分类的父分类中，
 	 * 如果此分类是一级分类，则删除后子分类将全部成为一级分类。根分类不可删除。
+	 * <p>
+	 * 子代到其它祖先的路径只是少了一级，直接把距离减一即可，语句数与子树大小无关。
 	 *
 	 * @param id 要删除的分类的 ID
 	 * @throws IllegalArgumentException 如果指定 ID 的分类不存在
 	 */
 	public void delete(int id) {
 		Utils.checkPositive(id, "id");
+		checkExists(id);
 
-		var category = findById(id);
-		if (category == null) {
-			throw new IllegalArgumentException("指定的分类不存在");
+		mapper.shortenPathThrough(id);
+		mapper.deleteRelation(id);
+		mapper.delete(id);
+
+		if (cache != null) {
+			cache.invalidate(id);
 		}
 
-		// 已排除根节点，故 parent 不会为 null。
-		var parent = category.getAncestorId(1);
-		deleteFromAllTable(id);
-		category.moveSubTree(parent);
+		if (Category.index != null) {
+			Category.index.deleted(id);
+		}
+		if (Category.snapshots != null) {
+			Category.snapshots.update(tree -> tree.deleted(id));
+		}
 	}
 
 	/**
 	 * 删除一个分类及其所有的下级分类，顶级分类不可删除。
+	 * <p>
+	 * 子树的节点由数据库根据关系表自行找出，无论子树多大都只需要两条删除语句。
 	 *
 	 * @param id 要删除的分类的 ID
 	 * @throws IllegalArgumentException 如果指定 ID 的分类不存在
 	 */
 	public void deleteTree(int id) {
 		Utils.checkPositive(id, "id");
+		checkExists(id);
+
+		// 被删除的节点要在删除前查出来，缓存为空时就不必了。
+		int[] removed = null;
+		if (cache != null && cache.size() > 0) {
+			removed = Category.index != null
+					? Category.index.getDescendantIds(id)
+					: mapper.selectDescendantId(id).stream().mapToInt(Integer::intValue).toArray();
+		}
+
+		mapper.deleteTree(id);
+		mapper.deleteTreePath(id);
+
+		if (cache != null) {
+			cache.invalidate(id);
+			if (removed != null) {
+				cache.invalidateAll(removed);
+			}
+		}
 
-		var category = findById(id);
-		if (category == null) {
+		if (Category.index != null) {
+			Category.index.treeDeleted(id);
+		}
+		if (Category.snapshots != null) {
+			Category.snapshots.update(tree -> tree.treeDeleted(id));
+		}
+	}
+
+	private void checkExists(int id) {
+		var exists = Category.index != null ? Category.index.contains(id) : findById(id) != null;
+		if (!exists) {
 			throw new IllegalArgumentException("指定的分类不存在");
 		}
-		deleteFromAllTable(id);
-		mapper.selectDescendantId(id).forEach(this::deleteFromAllTable);
 	}
 
 	/**
-	 * 删除两个表中与分类相关的记录。
-	 *
-	 * @param id 分类的 ID
+	 * 事务提交后调用，让其它连接在提交前读到并缓存的旧数据失效，见 CategoryCache.committed()。
 	 */
-	private void deleteFromAllTable(int id) {
-		mapper.delete(id);
-		mapper.deletePath(id);
+	public void committed() {
+		if (cache != null) {
+			cache.committed();
+		}
+	}
+
+	/**
+	 * 事务回滚后调用，丢弃内存中未提交的修改：清空缓存，重新加载 Category.index 和 Category.snapshots。
+	 * 要在回滚之后、会话关闭之前调用，重新加载时读到的才是回滚后的数据。
+	 */
+	public void discardUncommitted() {
+		if (cache != null) {
+			cache.clear();
+		}
+		if (Category.index != null) {
+			Category.index.reload();
+		}
+		if (Category.snapshots != null) {
+			Category.snapshots.reload();
+		}
 	}
 
 	/**
@@ -122,6 +382,19 @@ public class Repository {
 	 * @return 带父 ID 的分类列表
 	 */
 	public List<ListQueryVO> getAllForDemo() {
+		if (Category.snapshots != null) {
+			return Category.snapshots.current().getAll();
+		}
 		return mapper.selectAllWithParent();
 	}
+
+	/**
+	 * 与 getAllForDemo() 相同，但不使用快照时返回游标逐行读取，游标必须在会话关闭前读完并关闭。
+	 */
+	public Iterable<ListQueryVO> streamAllForDemo() {
+		if (Category.snapshots != null) {
+			return Category.snapshots.current().getAll();
+		}
+		return mapper.selectAllWithParentCursor();
+	}
 }
@@ -0,0 +1,111 @@
+package kaciras;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 控制同时访问数据库的请求数，请求本身在虚拟线程中执行，数量不受限制，但只有拿到许可的才能访问数据库，
+ * 其它的排队等待，队列满了或者等待超时则拒绝。
+ * <p>
+ * 修改树结构的请求在拿许可之前还要拿到写锁，所以同一时刻只有一个修改在执行，
+ * 不会因为数据库的锁冲突（比如 Sqlite 同时只能有一个写事务）而失败，TreeIndex 等内存结构也不会被交错地修改。
+ * 查询不拿锁，与修改并发执行，一致性由快照和数据库的事务隔离保证。
+ * 等待写锁的修改不占用许可，不会挡住后面的查询；它也算在排队数里，同样受队列长度和超时的限制。
+ */
+public final class RequestGate {
+
+	/** 统计信息，wait 是拿到许可（修改还有写锁）之前的排队时间。 */
+	public record Metrics(int running, int queued, long completed, long rejected, double averageWaitMillis) {}
+
+	/** Semaphore.tryAcquire 和 Lock.tryLock 的共同形式。 */
+	private interface Waitable {
+		boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException;
+	}
+
+	private final Semaphore permits;
+	private final int maxQueued;
+	private final long timeoutMillis;
+
+	// 公平模式，修改按到达的顺序执行。
+	private final ReentrantLock writeLock = new ReentrantLock(true);
+
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	/**
+	 * @param maxRunning    同时访问数据库的请求数上限
+	 * @param maxQueued     排队的请求数上限，超过的直接拒绝
+	 * @param timeoutMillis 排队的最长时间，超时则拒绝，修改等待写锁和许可的时间合计不超过它
+	 */
+	public RequestGate(int maxRunning, int maxQueued, long timeoutMillis) {
+		Utils.checkPositive(maxRunning, "maxRunning");
+		Utils.checkNotNegative(maxQueued, "maxQueued");
+		this.permits = new Semaphore(maxRunning, true);
+		this.maxQueued = maxQueued;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * 拿到许可（修改还要先拿到写锁）之后执行 action。
+	 *
+	 * @param write 是否修改树结构
+	 * @throws RejectedExecutionException 如果队列已满或排队超时
+	 */
+	public <T> T execute(boolean write, Callable<T> action) throws Exception {
+		var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		if (write) {
+			await(writeLock::tryLock, deadline);
+		}
+		try {
+			await(permits::tryAcquire, deadline);
+			running.incrementAndGet();
+			try {
+				return action.call();
+			} finally {
+				running.decrementAndGet();
+				completed.incrementAndGet();
+				permits.release();
+			}
+		} finally {
+			if (write) {
+				writeLock.unlock();
+			}
+		}
+	}
+
+	private void await(Waitable waitable, long deadline) throws InterruptedException {
+		// 带超时的 tryAcquire 和 tryLock 才遵守公平性，不会插到排队的请求前面。
+		if (waitable.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+			return;
+		}
+		if (queued.incrementAndGet() > maxQueued) {
+			queued.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("排队的请求太多");
+		}
+		var start = System.nanoTime();
+		try {
+			if (!waitable.tryAcquire(deadline - start, TimeUnit.NANOSECONDS)) {
+				rejected.incrementAndGet();
+				throw new RejectedExecutionException("排队超时");
+			}
+		} finally {
+			queued.decrementAndGet();
+			waitNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	public Metrics getMetrics() {
+		var count = completed.get();
+		var average = count == 0 ? 0 : waitNanos.get() / 1e6 / count;
+		return new Metrics(running.get(), queued.get(), count, rejected.get(), average);
+	}
+}
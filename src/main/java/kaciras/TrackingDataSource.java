@@ -17,27 +17,61 @@ import java.util.logging.Logger;
  * 根据调用链，得做 DataSource -> Connection -> Statement 三层包装，真他妈麻烦。
  * <p>
  * 该类是第一层，包装 DataSource 拦截 getConnection()
+ * <p>
+ * 有两种模式：包装单个连接时总是返回它，关闭会被忽略；包装连接池时每次从池中取一个，关闭即归还。
+ * 使用连接池时请求是并发处理的，而每个请求只在一个线程中执行，所以记录按线程分开保存。
  */
 public final class TrackingDataSource implements DataSource {
 
-	// 因为演示中不存在并发，就没有用加锁的 List。
-	private final List<String> records = new ArrayList<>();
+	private static final class Records {
+		final List<String> sqls = new ArrayList<>();
+		long affectedRows;
+	}
+
+	private final ThreadLocal<Records> records = ThreadLocal.withInitial(Records::new);
 
 	private final Connection connection;
+	private final DataSource dataSource;
 
 	public TrackingDataSource(Connection connection) {
-		this.connection = createProxy(Connection.class, new ConnectionHandler(connection));
+		this.connection = createProxy(Connection.class, new ConnectionHandler(connection, false));
+		this.dataSource = null;
+	}
+
+	public TrackingDataSource(DataSource dataSource) {
+		this.connection = null;
+		this.dataSource = dataSource;
 	}
 
+	/**
+	 * 清空当前线程的记录。
+	 */
 	public void reset() {
-		records.clear();
+		var current = records.get();
+		current.sqls.clear();
+		current.affectedRows = 0;
 	}
 
 	/**
-	 * 获取所有执行过的 SQL 语句，参数已经填充好了。
+	 * 获取当前线程执行过的所有 SQL 语句，参数已经填充好了。
 	 */
 	public String[] getExecutedSql() {
-		return records.toArray(String[]::new);
+		return records.get().sqls.toArray(String[]::new);
+	}
+
+	/**
+	 * 获取当前线程执行过的语句所影响（插入、更新、删除）的总行数，查询不计入。
+	 */
+	public long getAffectedRows() {
+		return records.get().affectedRows;
+	}
+
+	void record(String sql) {
+		records.get().sqls.add(sql);
+	}
+
+	void addAffectedRows(int rows) {
+		records.get().affectedRows += rows;
 	}
 
 	/**
@@ -50,13 +84,17 @@ public final class TrackingDataSource implements DataSource {
 	}
 
 	@Override
-	public Connection getConnection() {
-		return connection;
+	public Connection getConnection() throws SQLException {
+		if (dataSource == null) {
+			return connection;
+		}
+		var handler = new ConnectionHandler(dataSource.getConnection(), true);
+		return createProxy(Connection.class, handler);
 	}
 
 	@Override
-	public Connection getConnection(String username, String password) {
-		return connection;
+	public Connection getConnection(String username, String password) throws SQLException {
+		return getConnection();
 	}
 
 	/**
@@ -69,10 +107,13 @@ public final class TrackingDataSource implements DataSource {
 
 		private final Connection connection;
 
+		/** 是否来自连接池，单个连接的模式下不能真的关闭。 */
+		private final boolean pooled;
+
 		@Override
 		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-			if (method.getName().equals("close")) {
-				return null; // Mybatis 每次调用都会关闭链接，而本项目使用单例。
+			if (!pooled && method.getName().equals("close")) {
+				return null; // Mybatis 每次调用都会关闭链接，而单连接模式只有这一个。
 			}
 
 			var returnValue = method.invoke(connection, args);
@@ -80,7 +121,7 @@ public final class TrackingDataSource implements DataSource {
 				return returnValue;
 			}
 			var stat = (PreparedStatement) returnValue;
-			var recorder = new ArgRecordHandler(stat, (String) args[0], records);
+			var recorder = new ArgRecordHandler(stat, (String) args[0], TrackingDataSource.this);
 			return createProxy(PreparedStatement.class, recorder);
 		}
 	}
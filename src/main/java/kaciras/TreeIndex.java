@@ -0,0 +1,302 @@
+package kaciras;
+
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.Arrays;
+
+/**
+ * 树结构在内存中的索引，用基本类型数组保存每个节点的父节点、深度和子节点链表，
+ * 使得级别、第 N 级祖先、祖先判断、列出子孙 ID 等查询无需访问数据库。
+ * <ul>
+ *     <li>级别：O(1)
+ *     <li>第 N 级祖先：O(N)
+ *     <li>祖先判断、距离：O(两者的深度差)
+ *     <li>子孙 ID：O(子树大小)
+ * </ul>
+ * 数组以 ID 为下标，因为 ID 是自增的、基本连续，这样比哈希表更省内存。
+ * <p>
+ * 索引只从 category_tree 加载一次，之后由 Category 和 Repository 的修改方法同步更新。
+ * 每个节点的子节点用双向链表串起来，修改时只需改动几个指针，再更新被移动子树的深度，
+ * 代价与子树大小成正比，不会重算整棵树。
+ * 索引不感知事务，如果回滚了修改，需要调用 reload() 重新加载。
+ */
+public final class TreeIndex {
+
+	private static final int ABSENT = -1;
+
+	/** 链表的结尾。 */
+	private static final int NONE = -1;
+
+	private final CategoryMapper mapper;
+
+	/** 每个节点的父节点 ID，根节点的父节点是自己，不存在的为 ABSENT。 */
+	private int[] parents = new int[0];
+
+	private int[] depths = new int[0];
+
+	/** 子节点链表，firstChild 为表头，同一父节点的子节点由 nextSibling 和 prevSibling 相连。 */
+	private int[] firstChild = new int[0];
+	private int[] nextSibling = new int[0];
+	private int[] prevSibling = new int[0];
+
+	private TreeIndex(CategoryMapper mapper) {
+		this.mapper = mapper;
+	}
+
+	/**
+	 * 从关系表中距离为 1 的记录加载树结构。
+	 */
+	public static TreeIndex load(CategoryMapper mapper) {
+		var index = new TreeIndex(mapper);
+		index.reload();
+		return index;
+	}
+
+	public synchronized void reload() {
+		parents = new int[0];
+		depths = firstChild = nextSibling = prevSibling = new int[0];
+		ensureCapacity(1024);
+		parents[0] = 0;
+
+		mapper.selectParentLinks((ResultHandler<ClosureRow>) context -> {
+			var row = context.getResultObject();
+			ensureCapacity(row.getDescendant() + 1);
+			parents[row.getDescendant()] = row.getAncestor();
+		});
+
+		// 记录的顺序不确定，全部读完后再建链表。倒序插入到表头，这样子节点按 ID 升序排列。
+		for (int id = parents.length - 1; id > 0; id--) {
+			if (parents[id] != ABSENT) {
+				link(id, parents[id]);
+			}
+		}
+		updateDepths(0);
+	}
+
+	// ======================== 查询 ========================
+
+	public synchronized boolean contains(int id) {
+		return id >= 0 && id < parents.length && parents[id] != ABSENT;
+	}
+
+	/**
+	 * 查询分类是哪一级的，根分类级别是 0。
+	 *
+	 * @throws IllegalArgumentException 如果分类不存在
+	 */
+	public synchronized int getLevel(int id) {
+		checkExists(id);
+		return depths[id];
+	}
+
+	/**
+	 * 查询指定分类往上第 N 级分类，N=0 返回自身的 ID，N=1 返回父 ID，以此类推。
+	 *
+	 * @return 上级分类的 ID，如果分类不存在或 N 超过了它的级别则返回 null
+	 */
+	public synchronized Integer getAncestorId(int id, int n) {
+		if (!contains(id) || n > depths[id]) {
+			return null;
+		}
+		return ancestorAt(id, n);
+	}
+
+	/**
+	 * 查询指定分类到它某个祖先的距离，与 CategoryMapper.selectDistance 一致。
+	 *
+	 * @return 距离，如果 ancestor 不是 id 的祖先（或自身）则返回 null
+	 */
+	public synchronized Integer getDistance(int id, int ancestor) {
+		if (!isAncestor(ancestor, id)) {
+			return null;
+		}
+		return depths[id] - depths[ancestor];
+	}
+
+	/**
+	 * 判断 ancestor 是否为 descendant 的祖先，节点也算是自己的祖先。
+	 * 从 descendant 往上走到与 ancestor 同一层，看是不是同一个节点。
+	 */
+	public synchronized boolean isAncestor(int ancestor, int descendant) {
+		if (!contains(ancestor) || !contains(descendant)) {
+			return false;
+		}
+		var diff = depths[descendant] - depths[ancestor];
+		return diff >= 0 && ancestorAt(descendant, diff) == ancestor;
+	}
+
+	/**
+	 * 获取该分类的所有下级分类的 ID，不包括自身，按先序遍历的顺序排列。
+	 *
+	 * @throws IllegalArgumentException 如果分类不存在
+	 */
+	public synchronized int[] getDescendantIds(int id) {
+		checkExists(id);
+		var result = new int[16];
+		var count = 0;
+		for (var node = next(id, id); node != NONE; node = next(node, id)) {
+			if (count == result.length) {
+				result = Arrays.copyOf(result, count * 2);
+			}
+			result[count++] = node;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	// ======================== 修改，与数据库的操作对应 ========================
+
+	/**
+	 * 对应 Repository.add，新节点是叶节点。
+	 */
+	synchronized void added(int id, int parent) {
+		ensureCapacity(id + 1);
+		parents[id] = parent;
+		depths[id] = depths[parent] + 1;
+		link(id, parent);
+	}
+
+	/**
+	 * 对应 Category.moveTo，子节点上浮到原来的父节点下面。
+	 */
+	synchronized void moved(int id, int parent) {
+		liftChildren(id);
+		treeMoved(id, parent);
+	}
+
+	/**
+	 * 对应 Category.moveTreeTo 中的一次子树移动。
+	 */
+	synchronized void treeMoved(int id, int parent) {
+		unlink(id);
+		parents[id] = parent;
+		link(id, parent);
+
+		var depth = depths[parent] + 1;
+		if (depths[id] != depth) {
+			depths[id] = depth;
+			updateDepths(id);
+		}
+	}
+
+	/**
+	 * 对应 Repository.delete，子节点上浮到被删除节点的父节点下面。
+	 */
+	synchronized void deleted(int id) {
+		liftChildren(id);
+		unlink(id);
+		parents[id] = ABSENT;
+	}
+
+	/**
+	 * 对应 Repository.deleteTree，删除整个子树。
+	 */
+	synchronized void treeDeleted(int id) {
+		for (var descendant : getDescendantIds(id)) {
+			parents[descendant] = ABSENT;
+			firstChild[descendant] = NONE;
+		}
+		unlink(id);
+		parents[id] = ABSENT;
+		firstChild[id] = NONE;
+	}
+
+	// ======================== 内部使用的方法 ========================
+
+	private void checkExists(int id) {
+		if (!contains(id)) {
+			throw new IllegalArgumentException("指定的分类不存在：" + id);
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		var length = parents.length;
+		if (capacity <= length) {
+			return;
+		}
+		capacity = Math.max(length * 2, capacity);
+		parents = Arrays.copyOf(parents, capacity);
+		depths = Arrays.copyOf(depths, capacity);
+		firstChild = Arrays.copyOf(firstChild, capacity);
+		nextSibling = Arrays.copyOf(nextSibling, capacity);
+		prevSibling = Arrays.copyOf(prevSibling, capacity);
+		Arrays.fill(parents, length, capacity, ABSENT);
+		Arrays.fill(firstChild, length, capacity, NONE);
+	}
+
+	private int ancestorAt(int id, int n) {
+		for (int i = 0; i < n; i++) {
+			id = parents[id];
+		}
+		return id;
+	}
+
+	/**
+	 * 先序遍历中 node 的下一个节点，遍历限制在 root 的子树内，结束时返回 NONE。
+	 */
+	private int next(int node, int root) {
+		if (firstChild[node] != NONE) {
+			return firstChild[node];
+		}
+		while (node != root) {
+			if (nextSibling[node] != NONE) {
+				return nextSibling[node];
+			}
+			node = parents[node];
+		}
+		return NONE;
+	}
+
+	/**
+	 * 把 id 插到 parent 的子节点链表的表头。
+	 */
+	private void link(int id, int parent) {
+		var head = firstChild[parent];
+		nextSibling[id] = head;
+		prevSibling[id] = NONE;
+		if (head != NONE) {
+			prevSibling[head] = id;
+		}
+		firstChild[parent] = id;
+	}
+
+	/**
+	 * 把 id 从它父节点的子节点链表中去掉。
+	 */
+	private void unlink(int id) {
+		var prev = prevSibling[id];
+		var next = nextSibling[id];
+		if (prev == NONE) {
+			firstChild[parents[id]] = next;
+		} else {
+			nextSibling[prev] = next;
+		}
+		if (next != NONE) {
+			prevSibling[next] = prev;
+		}
+	}
+
+	/**
+	 * 把直接子节点移到 id 的父节点下面，它们的子树都上升一层，id 变为叶节点。
+	 */
+	private void liftChildren(int id) {
+		var grandparent = parents[id];
+		for (var child = firstChild[id]; child != NONE; ) {
+			var following = nextSibling[child];
+			parents[child] = grandparent;
+			link(child, grandparent);
+			depths[child] = depths[id];
+			updateDepths(child);
+			child = following;
+		}
+		firstChild[id] = NONE;
+	}
+
+	/**
+	 * 根据 root 的深度重算它子树中（不含自身）所有节点的深度，先序遍历保证父节点先被更新。
+	 */
+	private void updateDepths(int root) {
+		for (var node = next(root, root); node != NONE; node = next(node, root)) {
+			depths[node] = depths[parents[node]] + 1;
+		}
+	}
+}
@@ -0,0 +1,416 @@
+package kaciras;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 整棵分类树在某个时刻的不可变快照，包含每个分类的名字和父子关系，读取时既不加锁也不访问数据库。
+ * <p>
+ * 节点按 ID 存放在一棵 32 叉的前缀树里（ID 每 5 位对应一层），修改时只复制从树根到被修改节点的那条路径，
+ * 其它分支由新旧快照共享。所以修改一个分类只需复制几个长度为 32 的数组，旧的快照仍然完整可用。
+ * <p>
+ * 每个节点只记录父节点和直接子节点，级别和祖先沿父节点往上走得到，这样移动子树时不用修改子树内部的节点。
+ * 快照由 VersionedTree 发布，每次发布版本号加一，可以用来判断基于旧版本的缓存是否失效。
+ */
+public final class TreeSnapshot {
+
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	private static final int[] NO_CHILDREN = new int[0];
+
+	/** 根节点的父节点。 */
+	private static final int NONE = -1;
+
+	private record Node(int id, String name, int parent, int[] children) {}
+
+	private final long version;
+	private final Object[] root;
+
+	/** 最上层数组的下标对应 ID 的哪几位，叶子层为 0。 */
+	private final int shift;
+
+	private final int size;
+
+	private TreeSnapshot(long version, Object[] root, int shift, int size) {
+		this.version = version;
+		this.root = root;
+		this.shift = shift;
+		this.size = size;
+	}
+
+	/**
+	 * 创建一个不含任何节点的快照，版本号为 version。
+	 */
+	static TreeSnapshot empty(long version) {
+		return new TreeSnapshot(version, new Object[WIDTH], 0, 0);
+	}
+
+	// ======================== 查询 ========================
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * 分类的数量，包括根分类。
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(int id) {
+		return find(id) != null;
+	}
+
+	/**
+	 * @return 分类的名字，如果分类不存在则返回 null
+	 */
+	public String getName(int id) {
+		var node = find(id);
+		return node == null ? null : node.name;
+	}
+
+	/**
+	 * 查询分类是哪一级的，根分类级别是 0。
+	 *
+	 * @throws IllegalArgumentException 如果分类不存在
+	 */
+	public int getLevel(int id) {
+		var node = require(id);
+		var level = 0;
+		while (node.parent != NONE) {
+			node = find(node.parent);
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * 查询指定分类往上第 N 级分类，N=0 返回自身的 ID，N=1 返回父 ID，以此类推。
+	 *
+	 * @return 上级分类的 ID，如果分类不存在或 N 超过了它的级别则返回 null
+	 */
+	public Integer getAncestorId(int id, int n) {
+		var node = find(id);
+		if (node == null) {
+			return null;
+		}
+		for (int i = 0; i < n; i++) {
+			if (node.parent == NONE) {
+				return null;
+			}
+			node = find(node.parent);
+		}
+		return node.id;
+	}
+
+	/**
+	 * 获取根分类（不含）到此分类（含）路径上的所有的分类，与 Category.getPath() 一致。
+	 *
+	 * @return 分类列表，越上级的分类越靠前，如果分类不存在则返回空列表
+	 */
+	public List<Category> getPath(int id) {
+		var path = new ArrayList<Category>();
+		for (var node = find(id); node != null && node.parent != NONE; node = find(node.parent)) {
+			path.add(toCategory(node));
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	/**
+	 * 获取分类的直接子分类，如果分类不存在则返回空列表。
+	 */
+	public List<Category> getChildren(int id) {
+		var node = find(id);
+		if (node == null) {
+			return List.of();
+		}
+		var list = new ArrayList<Category>(node.children.length);
+		for (var child : node.children) {
+			list.add(toCategory(find(child)));
+		}
+		return list;
+	}
+
+	/**
+	 * 获取分类的整个子树，包括自身，按先序遍历的顺序排列。如果分类不存在则返回空列表。
+	 */
+	public List<Category> getTree(int id) {
+		var list = new ArrayList<Category>();
+		var node = find(id);
+		if (node == null) {
+			return list;
+		}
+		var stack = new ArrayList<Node>();
+		stack.add(node);
+		while (!stack.isEmpty()) {
+			node = stack.remove(stack.size() - 1);
+			list.add(toCategory(node));
+			for (int i = node.children.length - 1; i >= 0; i--) {
+				stack.add(find(node.children[i]));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * 获取所有分类及其父分类，按 ID 排序，与 CategoryMapper.selectAllWithParent 一致。
+	 */
+	public List<ListQueryVO> getAll() {
+		var list = new ArrayList<ListQueryVO>(size);
+		collect(root, shift, list);
+		return list;
+	}
+
+	private static void collect(Object[] array, int shift, List<ListQueryVO> list) {
+		for (var slot : array) {
+			if (slot == null) {
+				continue;
+			}
+			if (shift > 0) {
+				collect((Object[]) slot, shift - BITS, list);
+			} else {
+				var node = (Node) slot;
+				var vo = new ListQueryVO();
+				vo.setId(node.id);
+				vo.setName(node.name);
+				vo.setParentId(node.parent == NONE ? null : node.parent);
+				list.add(vo);
+			}
+		}
+	}
+
+	private Node find(int id) {
+		return find(root, shift, id);
+	}
+
+	private static Node find(Object[] root, int shift, int id) {
+		if (id < 0 || (id >>> shift >>> BITS) != 0) {
+			return null;
+		}
+		var array = root;
+		for (var s = shift; s > 0; s -= BITS) {
+			array = (Object[]) array[(id >>> s) & MASK];
+			if (array == null) {
+				return null;
+			}
+		}
+		return (Node) array[id & MASK];
+	}
+
+	private Node require(int id) {
+		return require(root, shift, id);
+	}
+
+	private static Node require(Object[] root, int shift, int id) {
+		var node = find(root, shift, id);
+		if (node == null) {
+			throw new IllegalArgumentException("指定的分类不存在：" + id);
+		}
+		return node;
+	}
+
+	private static Category toCategory(Node node) {
+		var category = new Category();
+		category.setId(node.id);
+		category.setName(node.name);
+		return category;
+	}
+
+	// ======================== 修改 ========================
+
+	Editor edit() {
+		return new Editor(this);
+	}
+
+	/**
+	 * 在一个快照的基础上做若干修改，最后生成新的快照，原快照不受影响。
+	 * <p>
+	 * 同一个 Editor 里新建的数组属于它自己，可以直接修改，只有从原快照共享来的数组才需要复制。
+	 * 所以一次编辑中多次修改同一条路径只复制一次，从空快照开始加载整棵树也不会反复复制。
+	 */
+	static final class Editor {
+
+		private final long version;
+		private final Set<Object[]> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		private Object[] root;
+		private int shift;
+		private int size;
+
+		private Editor(TreeSnapshot base) {
+			version = base.version;
+			root = base.root;
+			shift = base.shift;
+			size = base.size;
+		}
+
+		TreeSnapshot build() {
+			owned.clear();
+			return new TreeSnapshot(version + 1, root, shift, size);
+		}
+
+		/**
+		 * 加载时使用，直接放入节点，不检查也不修改父节点。
+		 */
+		void put(int id, String name, int parent, int[] children) {
+			set(id, new Node(id, name, id == 0 ? NONE : parent, children));
+		}
+
+		/**
+		 * 对应 Repository.add，新节点是叶节点。
+		 */
+		void added(int id, int parent, String name) {
+			var p = require(parent);
+			set(id, new Node(id, name, parent, NO_CHILDREN));
+			set(parent, new Node(parent, p.name, p.parent, append(p.children, id)));
+		}
+
+		/**
+		 * 对应 Repository.update。
+		 */
+		void renamed(int id, String name) {
+			var node = require(id);
+			set(id, new Node(id, name, node.parent, node.children));
+		}
+
+		/**
+		 * 对应 Category.moveTo，子节点上浮到原来的父节点下面。
+		 */
+		void moved(int id, int parent) {
+			liftChildren(id);
+			treeMoved(id, parent);
+		}
+
+		/**
+		 * 对应 Category.moveTreeTo 中的一次子树移动。
+		 */
+		void treeMoved(int id, int parent) {
+			detach(id);
+			var node = require(id);
+			set(id, new Node(id, node.name, parent, node.children));
+			var p = require(parent);
+			set(parent, new Node(parent, p.name, p.parent, append(p.children, id)));
+		}
+
+		/**
+		 * 对应 Repository.delete，子节点上浮到被删除节点的父节点下面。
+		 */
+		void deleted(int id) {
+			liftChildren(id);
+			detach(id);
+			remove(id);
+		}
+
+		/**
+		 * 对应 Repository.deleteTree，删除整个子树。
+		 */
+		void treeDeleted(int id) {
+			detach(id);
+			var stack = new ArrayList<Integer>();
+			stack.add(id);
+			while (!stack.isEmpty()) {
+				var node = require(stack.remove(stack.size() - 1));
+				for (var child : node.children) {
+					stack.add(child);
+				}
+				remove(node.id);
+			}
+		}
+
+		/**
+		 * 把直接子节点移到 id 的父节点下面，id 变为叶节点。
+		 */
+		private void liftChildren(int id) {
+			var node = require(id);
+			if (node.children.length == 0) {
+				return;
+			}
+			for (var child : node.children) {
+				var c = require(child);
+				set(child, new Node(child, c.name, node.parent, c.children));
+			}
+			var p = require(node.parent);
+			var children = Arrays.copyOf(p.children, p.children.length + node.children.length);
+			System.arraycopy(node.children, 0, children, p.children.length, node.children.length);
+			set(p.id, new Node(p.id, p.name, p.parent, children));
+			set(id, new Node(id, node.name, node.parent, NO_CHILDREN));
+		}
+
+		/**
+		 * 把节点从它父节点的子节点列表中去掉。
+		 */
+		private void detach(int id) {
+			var p = require(require(id).parent);
+			var children = new int[p.children.length - 1];
+			var i = 0;
+			for (var child : p.children) {
+				if (child != id) {
+					children[i++] = child;
+				}
+			}
+			set(p.id, new Node(p.id, p.name, p.parent, children));
+		}
+
+		private Node require(int id) {
+			return TreeSnapshot.require(root, shift, id);
+		}
+
+		private void remove(int id) {
+			var leaf = leaf(id);
+			if (leaf[id & MASK] != null) {
+				leaf[id & MASK] = null;
+				size--;
+			}
+		}
+
+		private void set(int id, Node node) {
+			while ((id >>> shift >>> BITS) != 0) {
+				var parent = own(new Object[WIDTH]);
+				parent[0] = root;
+				root = parent;
+				shift += BITS;
+			}
+			var leaf = leaf(id);
+			if (leaf[id & MASK] == null) {
+				size++;
+			}
+			leaf[id & MASK] = node;
+		}
+
+		/**
+		 * 找到 ID 所在的最底层数组，并确保从根到它的路径都是可以修改的。
+		 */
+		private Object[] leaf(int id) {
+			var array = root = writable(root);
+			for (var s = shift; s > 0; s -= BITS) {
+				var i = (id >>> s) & MASK;
+				var child = (Object[]) array[i];
+				array = (Object[]) (array[i] = child == null ? own(new Object[WIDTH]) : writable(child));
+			}
+			return array;
+		}
+
+		private Object[] writable(Object[] array) {
+			return owned.contains(array) ? array : own(array.clone());
+		}
+
+		private Object[] own(Object[] array) {
+			owned.add(array);
+			return array;
+		}
+
+		private static int[] append(int[] array, int value) {
+			var result = Arrays.copyOf(array, array.length + 1);
+			result[array.length] = value;
+			return result;
+		}
+	}
+}
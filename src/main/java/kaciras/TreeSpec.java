@@ -0,0 +1,16 @@
+package kaciras;
+
+import java.util.List;
+
+/**
+ * 描述一棵尚未插入的子树，只有分类名和子节点，用于 Repository.graft() 一次性嫁接整个分支。
+ *
+ * @param name     分类名
+ * @param children 子节点，可以为空列表
+ */
+public record TreeSpec(String name, List<TreeSpec> children) {
+
+	public static TreeSpec of(String name, TreeSpec... children) {
+		return new TreeSpec(name, List.of(children));
+	}
+}
@@ -2,9 +2,11 @@ package kaciras;
 
 import org.apache.ibatis.jdbc.ScriptRunner;
 import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.VendorDatabaseIdProvider;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.LocalCacheScope;
 import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 
@@ -15,6 +17,7 @@ import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
+import java.util.Properties;
 
 public final class Utils {
 
@@ -40,14 +43,21 @@ public final class Utils {
 	}
 
 	static SqlSession createSqlSession(DataSource dataSource) {
+		return createSessionFactory(dataSource).openSession();
+	}
+
+	static SqlSessionFactory createSessionFactory(DataSource dataSource) {
 		var txFactory = new JdbcTransactionFactory();
 		var environment = new Environment("test", txFactory, dataSource);
 
 		var config = new Configuration();
 		config.setCacheEnabled(false); // 为了追踪执行的 SQL 必须关闭缓存。
-		config.addMapper(CategoryMapper.class);
 		config.setEnvironment(environment);
 
+		// 部分语句在不同数据库中写法不同，需要在加载 Mapper 之前确定 databaseId。
+		config.setDatabaseId(getDatabaseId(dataSource));
+		config.addMapper(CategoryMapper.class);
+
 		/*
 		 * 禁用会话级缓存，让每次执行都查询数据库，以便获取 SQL。
 		 *
@@ -57,7 +67,26 @@ public final class Utils {
 		 */
 		config.setLocalCacheScope(LocalCacheScope.STATEMENT);
 
-		return new DefaultSqlSessionFactory(config).openSession();
+		return new DefaultSqlSessionFactory(config);
+	}
+
+	/**
+	 * 识别数据库的类型，返回值与 DBManager 中的 dialect 一致，在 Mapper 中作为 databaseId 使用。
+	 * Mariadb 跟 MySQL 的语法一样，故统一为 mysql。
+	 *
+	 * @param dataSource 数据源
+	 * @return 数据库类型
+	 */
+	private static String getDatabaseId(DataSource dataSource) {
+		var aliases = new Properties();
+		aliases.setProperty("SQLite", "sqlite");
+		aliases.setProperty("MySQL", "mysql");
+		aliases.setProperty("MariaDB", "mysql");
+		aliases.setProperty("PostgreSQL", "postgres");
+
+		var provider = new VendorDatabaseIdProvider();
+		provider.setProperties(aliases);
+		return provider.getDatabaseId(dataSource);
 	}
 
 	/**
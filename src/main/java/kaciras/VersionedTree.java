@@ -0,0 +1,110 @@
+package kaciras;
+
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 发布 TreeSnapshot 的地方，读取方通过 current() 拿到某个版本的完整快照，之后的修改不会影响它。
+ * <p>
+ * 读取只是一次原子引用的读，不加锁也不访问数据库，适合面包屑、菜单这类读远多于写的场景。
+ * 修改由 Category 和 Repository 的修改方法同步进行，写入方之间互斥，每次修改生成新快照后用一次引用替换发布。
+ * <p>
+ * 与 TreeIndex 一样不感知事务，快照中会包含未提交的修改，如果回滚了需要调用 reload() 重新加载。
+ */
+public final class VersionedTree {
+
+	private final CategoryMapper mapper;
+
+	private final AtomicReference<TreeSnapshot> current = new AtomicReference<>(TreeSnapshot.empty(0));
+
+	private VersionedTree(CategoryMapper mapper) {
+		this.mapper = mapper;
+	}
+
+	/**
+	 * 从数据库加载所有分类，创建第一个快照。
+	 */
+	public static VersionedTree load(CategoryMapper mapper) {
+		var tree = new VersionedTree(mapper);
+		tree.reload();
+		return tree;
+	}
+
+	/**
+	 * 获取最新的快照。
+	 */
+	public TreeSnapshot current() {
+		return current.get();
+	}
+
+	/**
+	 * 重新从数据库加载，新快照的版本号仍然递增。
+	 */
+	public synchronized void reload() {
+		var rows = new Rows();
+		mapper.selectNodes((ResultHandler<ListQueryVO>) context -> rows.add(context.getResultObject()));
+
+		// 用计数排序把子节点按父节点分组，每个节点的子节点数组都是 children 中的一段。
+		var max = 0;
+		for (int i = 0; i < rows.size; i++) {
+			max = Math.max(max, rows.ids[i]);
+		}
+		var offsets = new int[max + 2];
+		for (int i = 0; i < rows.size; i++) {
+			if (rows.parents[i] >= 0) {
+				offsets[rows.parents[i] + 1]++;
+			}
+		}
+		for (int i = 0; i <= max; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		var children = new int[offsets[max + 1]];
+		var fill = Arrays.copyOf(offsets, max + 1);
+		for (int i = 0; i < rows.size; i++) {
+			if (rows.parents[i] >= 0) {
+				children[fill[rows.parents[i]]++] = rows.ids[i];
+			}
+		}
+
+		var editor = TreeSnapshot.empty(current.get().getVersion()).edit();
+		for (int i = 0; i < rows.size; i++) {
+			var id = rows.ids[i];
+			if (id == 0 || rows.parents[i] >= 0) {
+				editor.put(id, rows.names[i], rows.parents[i], Arrays.copyOfRange(children, offsets[id], offsets[id + 1]));
+			}
+		}
+		current.set(editor.build());
+	}
+
+	/**
+	 * 在当前快照上做修改并发布新的快照，多个修改放在一个 action 里只会产生一个版本。
+	 */
+	synchronized void update(Consumer<TreeSnapshot.Editor> action) {
+		var editor = current.get().edit();
+		action.accept(editor);
+		current.set(editor.build());
+	}
+
+	private static final class Rows {
+
+		int[] ids = new int[1024];
+		int[] parents = new int[1024];
+		String[] names = new String[1024];
+		int size;
+
+		void add(ListQueryVO row) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				parents = Arrays.copyOf(parents, size * 2);
+				names = Arrays.copyOf(names, size * 2);
+			}
+			ids[size] = row.getId();
+			parents[size] = row.getParentId() == null ? -1 : row.getParentId();
+			names[size] = row.getName();
+			size++;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package kaciras;
+
+import kaciras.setup.AreaCodeDataset;
+import kaciras.setup.DBManager;
+import kaciras.setup.RenumberedDataset;
+import kaciras.setup.SyntheticDataset;
+import lombok.Cleanup;
+import me.tongfei.progressbar.ProgressBar;
+
+import java.io.FileNotFoundException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * 修改操作的性能测试，对不同层级（即不同大小和深度）的子树执行移动和删除，
+ * 统计每种操作的耗时、执行的语句数和影响的行数。
+ * <p>
+ * 行政区划代码超出了 Category 的 int 范围，所以导入时会重新编号；如果没有该数据，
+ * 则使用生成的满 10 叉树。每次操作后都会回滚，测试结束后删除表。
+ */
+public final class WriteBenchmark {
+
+	private static final int LEVELS = 5;
+	private static final int TIMES = 5;
+
+	private record Operation(String name, BiConsumer<Category, Category> action) {}
+
+	public static void run() throws Exception {
+		var manager = DBManager.open();
+		var connection = manager.getConnection();
+
+		initialize(manager);
+
+		var tracked = new TrackingDataSource(connection);
+		var session = Utils.createSqlSession(tracked);
+		var mapper = session.getMapper(CategoryMapper.class);
+		var repository = new Repository(Category.mapper = mapper);
+
+		var operations = List.of(
+				new Operation("moveTo", Category::moveTo),
+				new Operation("moveTreeTo", Category::moveTreeTo),
+				new Operation("delete", (category, target) -> repository.delete(category.getId())),
+				new Operation("deleteTree", (category, target) -> repository.deleteTree(category.getId()))
+		);
+
+		System.out.printf("数据库：%s，每项执行 %d 次取平均，每次执行后回滚。%n", manager.getDialect(), TIMES);
+
+		for (var operation : operations) {
+			System.out.println("\n" + operation.name);
+			System.out.println("子树大小 | 子树深度 | 语句数 | 影响行数 | 用时(ms)");
+
+			// 从叶节点开始，级别越高子树越大。
+			for (int level = LEVELS; level > 0; level--) {
+				var category = mapper.selectById(selectFirstAt(connection, level));
+				var target = mapper.selectById(selectLastAt(connection, Math.max(level - 1, 1)));
+				var size = countSubTree(connection, category.getId());
+
+				var statements = 0;
+				var rows = 0L;
+				var start = System.nanoTime();
+				for (int i = 0; i < TIMES; i++) {
+					tracked.reset();
+					operation.action.accept(category, target);
+					statements = tracked.getExecutedSql().length;
+					rows = tracked.getAffectedRows();
+					session.rollback(true);
+				}
+				var time = (System.nanoTime() - start) / 1e6 / TIMES;
+
+				System.out.printf("%8d | %8d | %6d | %8d | %.3f%n", size, LEVELS - level, statements, rows, time);
+			}
+		}
+
+		manager.dropTables();
+		System.out.println("\n测试结束，表已删除。");
+	}
+
+	private static void initialize(DBManager manager) throws Exception {
+		try (
+				var source = new AreaCodeDataset();
+				var pb = new ProgressBar("导入数据", source.getTotal())
+		) {
+			var ds = new RenumberedDataset(source);
+			manager.importData(ds, () -> pb.stepTo(source.getProgress()), "closure.sql");
+		} catch (FileNotFoundException e) {
+			System.out.println("没有找到行政区划数据，使用生成的满 10 叉树。");
+
+			var ds = SyntheticDataset.complete(10, LEVELS);
+			try (var pb = new ProgressBar("导入数据", ds.getTotal())) {
+				manager.importData(ds, () -> pb.stepTo(ds.getProgress()), "closure.sql");
+			}
+		}
+	}
+
+	private static int selectFirstAt(Connection conn, int level) throws SQLException {
+		return queryInt(conn, "SELECT descendant FROM category_tree WHERE ancestor=0 AND distance=? ORDER BY descendant LIMIT 1", level);
+	}
+
+	private static int selectLastAt(Connection conn, int level) throws SQLException {
+		return queryInt(conn, "SELECT descendant FROM category_tree WHERE ancestor=0 AND distance=? ORDER BY descendant DESC LIMIT 1", level);
+	}
+
+	private static int countSubTree(Connection conn, int id) throws SQLException {
+		return queryInt(conn, "SELECT COUNT(*) FROM category_tree WHERE ancestor=?", id);
+	}
+
+	private static int queryInt(Connection conn, String sql, int arg) throws SQLException {
+		@Cleanup var stat = conn.prepareStatement(sql);
+		stat.setInt(1, arg);
+		@Cleanup var results = stat.executeQuery();
+		results.next();
+		return results.getInt(1);
+	}
+}
@@ -1,16 +1,22 @@
 package kaciras.setup;
 
 import lombok.Getter;
-import lombok.SneakyThrows;
-import org.apache.commons.io.input.BoundedInputStream;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 
+/**
+ * 行政区划数据集，每行的格式为 "代码,名称,级别"，文件需使用 UTF-8 编码。
+ * <p>
+ * 文件被映射到内存中，直接从字节解析出各个字段，每行只有名字需要创建对象（且只在调用 getName 时）。
+ * 为了避免 60 多万次的分配，next() 总是返回同一个行对象，其内容在下次调用 next() 前有效。
+ */
 public class AreaCodeDataset implements Iterator<DataRow>, AutoCloseable {
 
 	// 代码总共 12 位，省 2 位，市 2 位，县 2 位，镇 3 位，村街道 3 位。
@@ -19,71 +25,131 @@ public class AreaCodeDataset implements Iterator<DataRow>, AutoCloseable {
 	@Getter
 	private final long total;
 
-	private final BoundedInputStream stream;
-	private final BufferedReader reader;
-
-	private String line;
+	private final ByteBuffer buffer;
+	private final AreaCodeRow row = new AreaCodeRow();
 
 	public AreaCodeDataset() throws Exception {
+		this(mapFile());
+	}
+
+	/**
+	 * 从内存中的数据解析，会修改 buffer 的 position。
+	 *
+	 * @param buffer CSV 文件的内容
+	 */
+	AreaCodeDataset(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.total = buffer.limit();
+
+		// 跳过 UTF-8 的 BOM。
+		if (buffer.remaining() >= 3
+				&& buffer.get(0) == (byte) 0xEF
+				&& buffer.get(1) == (byte) 0xBB
+				&& buffer.get(2) == (byte) 0xBF) {
+			buffer.position(3);
+		}
+	}
+
+	private static ByteBuffer mapFile() throws Exception {
 		var loader = AreaCodeDataset.class.getClassLoader();
 		var uri = loader.getResource("area_code_2022.csv");
 		if (uri == null) {
 			throw new FileNotFoundException("area_code_2022.csv");
 		}
 
-		var path = Paths.get(uri.toURI());
-		stream = BoundedInputStream.builder().setPath(path).get();
-		total = Files.size(path);
-		reader = new BufferedReader(new InputStreamReader(stream));
+		// 映射在通道关闭后仍然有效。
+		Path path = Paths.get(uri.toURI());
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
 	}
 
-	@SneakyThrows
 	@Override
 	public boolean hasNext() {
-		return (line = reader.readLine()) != null;
+		while (buffer.hasRemaining()) {
+			var b = buffer.get(buffer.position());
+			if (b != '\n' && b != '\r') {
+				return true;
+			}
+			buffer.position(buffer.position() + 1);
+		}
+		return false;
 	}
 
 	@Override
 	public DataRow next() {
-		return new AreaCodeRow(line);
+		row.id = readNumber();
+		row.nameStart = buffer.position();
+		while (buffer.get() != ',') {
+			// 名字只记录位置，等用到时再解码。
+		}
+		row.nameLength = buffer.position() - 1 - row.nameStart;
+		row.fillAncestors((int) readNumber());
+		return row;
+	}
+
+	/**
+	 * 读取一个非负整数，并跳过其后的分隔符（逗号或换行）。
+	 */
+	private long readNumber() {
+		long value = 0;
+		while (buffer.hasRemaining()) {
+			var b = buffer.get();
+			if (b < '0' || b > '9') {
+				if (b == '\r' && buffer.hasRemaining()) {
+					buffer.get();
+				}
+				break;
+			}
+			value = value * 10 + (b - '0');
+		}
+		return value;
 	}
 
 	public long getProgress() {
-		return stream.getCount();
+		return buffer.position();
 	}
 
 	@Override
-	public void close() throws Exception {
-		reader.close();
-	}
+	public void close() {}
 
-	static class AreaCodeRow implements DataRow {
+	final class AreaCodeRow implements DataRow {
 
-		private final String[] columns;
+		// 每个级别的祖先数组长度不同，各预先分配一个。
+		private final long[][] ancestors = {
+				new long[1], new long[2], new long[3], new long[4], new long[5]
+		};
 
-		public AreaCodeRow(String line) {
-			columns = line.split(",");
+		private final byte[] nameBytes = new byte[256];
+
+		private long id;
+		private int nameStart;
+		private int nameLength;
+		private long[] current;
+
+		private void fillAncestors(int level) {
+			current = ancestors[level - 1];
+			for (int i = 0; i < level; i++) {
+				var shift = SHIFTS[5 - level + i];
+				current[i] = id / shift * shift;
+			}
 		}
 
 		@Override
 		public String getName() {
-			return columns[1];
+			var bytes = nameLength <= nameBytes.length ? nameBytes : new byte[nameLength];
+			buffer.get(nameStart, bytes, 0, nameLength);
+			return new String(bytes, 0, nameLength, StandardCharsets.UTF_8);
 		}
 
 		@Override
 		public long getId() {
-			return Long.parseLong(columns[0]);
+			return id;
 		}
 
 		@Override
 		public long[] getAncestorIds() {
-			var ids = new long[Integer.parseInt(columns[2])];
-			var code = getId();
-			for (int i = 0; i < ids.length; i++) {
-				var shift = SHIFTS[5 - ids.length + i];
-				ids[i] = code / shift * shift;
-			}
-			return ids;
+			return current;
 		}
 	}
 }
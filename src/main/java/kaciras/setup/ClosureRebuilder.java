@@ -0,0 +1,188 @@
+package kaciras.setup;
+
+import lombok.Cleanup;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 根据父节点指针重新生成 category_tree 表。
+ * <p>
+ * 父节点指针全部读到内存中的基本类型数组里，由 SimpleDataset 按先父后子的顺序算出每个节点的祖先，
+ * 批量写入临时表 category_tree_new，写完后再建主键和索引，最后替换掉原来的表。
+ * 临时表的建表语句、主键和索引都取自 closure.sql，只把表名换掉，所以替换后的表结构与新建的相同。
+ * 建表语句里的主键随表一起创建（Sqlite 和 PostgreSQL），后处理部分的在写入后才建（MySQL）：
+ * <ul>
+ *     <li>MySQL：RENAME TABLE 可以一次交换两个表，是原子的。
+ *     <li>PostgreSQL 和 Sqlite：DDL 支持事务，在一个事务里删除旧表并重命名新表。
+ * </ul>
+ * PostgreSQL 的索引名在模式内唯一，临时表的索引先加上后缀，交换后再改回来。
+ * Sqlite 的索引名是全库唯一的且不能重命名，所以它的索引在交换的事务里、旧表删除后再建。
+ */
+@RequiredArgsConstructor
+final class ClosureRebuilder {
+
+	private static final String TEMP_TABLE = "category_tree_new";
+
+	private static final Pattern TABLE_NAME = Pattern.compile("\\bcategory_tree\\b");
+	private static final Pattern INDEX_NAME = Pattern.compile("\\bCREATE\\s+INDEX\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+	/** PostgreSQL 中临时表的索引名后缀。 */
+	private static final String INDEX_SUFFIX = "_new";
+
+	private final Connection connection;
+	private final String dialect;
+	private final int batchSize;
+
+	/**
+	 * @param parentsSql 查询父节点指针的 SQL，结果的两列依次为节点 ID 和父节点 ID，一级节点的父节点为 0。
+	 * @return 新闭包表的行数
+	 */
+	long rebuild(String parentsSql) throws SQLException, IOException {
+		var script = DataImporter.loadSchemaFile(dialect + "/closure.sql");
+		var createTable = statementsOf(script[0]).stream()
+				.filter(sql -> sql.regionMatches(true, 0, "CREATE TABLE", 0, 12))
+				.findFirst()
+				.orElseThrow(() -> new IllegalStateException("closure.sql 里没有 category_tree 的建表语句"));
+		var postStatements = statementsOf(script[1]);
+
+		var autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try {
+			// PostgreSQL 只有在事务中才会按 fetchSize 分批读取，所以先关闭自动提交。
+			var dataset = loadParents(parentsSql);
+			var rows = load(dataset, createTable);
+			swap(postStatements);
+			return rows;
+		} catch (SQLException | RuntimeException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	private SimpleDataset loadParents(String sql) throws SQLException {
+		var ids = new long[1024];
+		var parents = new long[1024];
+		var size = 0;
+
+		@Cleanup var statement = connection.createStatement();
+		statement.setFetchSize(batchSize);
+		@Cleanup var results = statement.executeQuery(sql);
+		while (results.next()) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+				parents = Arrays.copyOf(parents, size * 2);
+			}
+			ids[size] = results.getLong(1);
+			parents[size] = results.getLong(2);
+			size++;
+		}
+		return new SimpleDataset(ids, parents, null, size);
+	}
+
+	private long load(SimpleDataset dataset, String createTable) throws SQLException {
+		@Cleanup var statement = connection.createStatement();
+		statement.execute("DROP TABLE IF EXISTS " + TEMP_TABLE);
+		statement.execute(toTempTable(createTable));
+		connection.commit();
+
+		@Cleanup var insert = connection.prepareStatement("INSERT INTO " + TEMP_TABLE + " (ancestor, descendant, distance) VALUES (?,?,?)");
+		insert.setLong(1, 0);
+		insert.setLong(2, 0);
+		insert.setInt(3, 0);
+		insert.addBatch();
+		long rows = 1;
+
+		for (int n = 1; dataset.hasNext(); n++) {
+			var ancestors = dataset.next().getAncestorIds();
+			var id = ancestors[0];
+			for (int i = 0; i < ancestors.length; i++) {
+				insert.setLong(1, ancestors[i]);
+				insert.setLong(2, id);
+				insert.setInt(3, i);
+				insert.addBatch();
+			}
+			insert.setLong(1, 0);
+			insert.setLong(2, id);
+			insert.setInt(3, ancestors.length);
+			insert.addBatch();
+			rows += ancestors.length + 1;
+
+			if (n % batchSize == 0) {
+				insert.executeBatch();
+			}
+		}
+		insert.executeBatch();
+		connection.commit();
+		return rows;
+	}
+
+	/**
+	 * @param postStatements closure.sql 后处理部分中的主键和索引
+	 */
+	private void swap(List<String> postStatements) throws SQLException {
+		@Cleanup var statement = connection.createStatement();
+		switch (dialect) {
+			case "mysql" -> {
+				for (var sql : postStatements) {
+					statement.execute(toTempTable(sql));
+				}
+				statement.execute("RENAME TABLE category_tree TO category_tree_old, " + TEMP_TABLE + " TO category_tree");
+				statement.execute("DROP TABLE category_tree_old");
+			}
+			case "postgres" -> {
+				var indexes = new ArrayList<String>();
+				for (var sql : postStatements) {
+					var matcher = INDEX_NAME.matcher(sql);
+					if (matcher.find()) {
+						indexes.add(matcher.group(1));
+						sql = sql.substring(0, matcher.end()) + INDEX_SUFFIX + sql.substring(matcher.end());
+					}
+					statement.execute(toTempTable(sql));
+				}
+				connection.commit();
+
+				statement.execute("DROP TABLE category_tree");
+				statement.execute("ALTER TABLE " + TEMP_TABLE + " RENAME TO category_tree");
+				statement.execute("ALTER TABLE category_tree RENAME CONSTRAINT " + TEMP_TABLE + "_pkey TO category_tree_pkey");
+				for (var index : indexes) {
+					statement.execute("ALTER INDEX " + index + INDEX_SUFFIX + " RENAME TO " + index);
+				}
+			}
+			default -> {
+				statement.execute("DROP TABLE category_tree");
+				statement.execute("ALTER TABLE " + TEMP_TABLE + " RENAME TO category_tree");
+				for (var sql : postStatements) {
+					statement.execute(sql);
+				}
+			}
+		}
+		connection.commit();
+	}
+
+	/**
+	 * 把脚本拆分为语句，去掉注释，只保留涉及 category_tree 的。
+	 */
+	private static List<String> statementsOf(String script) {
+		var statements = new ArrayList<String>();
+		for (var sql : script.replaceAll("--.*", "").split(";")) {
+			sql = sql.strip();
+			if (TABLE_NAME.matcher(sql).find()) {
+				statements.add(sql);
+			}
+		}
+		return statements;
+	}
+
+	private static String toTempTable(String sql) {
+		return TABLE_NAME.matcher(sql).replaceAll(TEMP_TABLE);
+	}
+}
@@ -5,11 +5,14 @@ import lombok.Cleanup;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
 
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -23,7 +26,8 @@ public final class DBManager {
 	private final Properties properties;
 
 	/**
-	 * 本项目仅需要单个连接，而且内存数据库也必须这样做，所以直接在此保持一个。
+	 * 建表、导入和测试使用的主连接，内存数据库也必须只用一个连接，所以直接在此保持一个。
+	 * 演示服务器在可以多连接时使用 createPool() 创建的连接池。
 	 */
 	private final Connection connection;
 
@@ -33,11 +37,7 @@ public final class DBManager {
 			properties.load(stream);
 		}
 
-		var connection = DriverManager.getConnection(
-				properties.getProperty("URL"),
-				properties.getProperty("USER"),
-				properties.getProperty("PASSWORD")
-		);
+		var connection = connect(properties);
 
 		var driver = properties.getProperty("URL").split(":")[1];
 		var dialect = switch (driver) {
@@ -50,15 +50,172 @@ public final class DBManager {
 		return new DBManager(dialect, properties, connection);
 	}
 
+	private static Connection connect(Properties properties) throws SQLException {
+		return DriverManager.getConnection(
+				properties.getProperty("URL"),
+				properties.getProperty("USER"),
+				properties.getProperty("PASSWORD")
+		);
+	}
+
+	/**
+	 * 按配置文件再打开一个连接，由调用方负责关闭。Sqlite 内存数据库每个连接都是独立的库，不能用这个。
+	 */
+	public Connection newConnection() throws SQLException {
+		return connect(properties);
+	}
+
+	/**
+	 * Sqlite 内存数据库只能使用 getConnection() 返回的这一个连接，其它情况都可以用连接池。
+	 */
+	public boolean isSingleConnection() {
+		var url = properties.getProperty("URL");
+		return dialect.equals("sqlite") && (url.contains(":memory:") || url.contains("mode=memory"));
+	}
+
+	/**
+	 * 按配置文件创建连接池，最大连接数由 POOL_SIZE 指定（默认 10），由调用方负责关闭。
+	 * <p>
+	 * Sqlite 文件数据库会切换到 WAL 模式，使读取不被写入阻塞，并让每个连接在库被锁住时等待一段时间而不是直接失败。
+	 *
+	 * @throws IllegalStateException 如果是 Sqlite 内存数据库
+	 */
+	public PooledDataSource createPool() throws SQLException {
+		if (isSingleConnection()) {
+			throw new IllegalStateException("Sqlite 内存数据库不能使用连接池");
+		}
+		var url = properties.getProperty("URL");
+		var driverProperties = new Properties();
+		if (properties.getProperty("USER") != null) {
+			driverProperties.setProperty("user", properties.getProperty("USER"));
+		}
+		if (properties.getProperty("PASSWORD") != null) {
+			driverProperties.setProperty("password", properties.getProperty("PASSWORD"));
+		}
+
+		if (dialect.equals("sqlite")) {
+			driverProperties.setProperty("busy_timeout", "5000");
+
+			// 日志模式保存在数据库文件里，只需设置一次，但不能在事务中修改。
+			var autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(true);
+			try (var statement = connection.createStatement()) {
+				statement.execute("PRAGMA journal_mode=WAL");
+			} finally {
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+
+		var size = Integer.parseInt(properties.getProperty("POOL_SIZE", "10"));
+		var driver = DriverManager.getDriver(url).getClass().getName();
+		var pool = new PooledDataSource(driver, url, driverProperties);
+		pool.setPoolMaximumActiveConnections(size);
+		pool.setPoolMaximumIdleConnections(size);
+		return pool;
+	}
+
+	/**
+	 * 建表并返回导入器，批量大小和提交间隔可以通过配置文件中的 IMPORT_BATCH_SIZE 和 IMPORT_COMMIT_SIZE 设置。
+	 */
 	public DataImporter createTable(String sqlName) throws Exception {
-		var path = dialect + "/" + sqlName;
+		var batchSize = Integer.parseInt(properties.getProperty("IMPORT_BATCH_SIZE", "1000"));
+		var commitSize = Integer.parseInt(properties.getProperty("IMPORT_COMMIT_SIZE", "100000"));
+
 		if (sqlName.equals("adjacent.sql")) {
-			return new DataImporter.Adjacent(connection, path);
+			return new DataImporter.Adjacent(connection, dialect, batchSize, commitSize);
 		} else {
-			return new DataImporter.Closure(connection, path);
+			return new DataImporter.Closure(connection, dialect, batchSize, commitSize);
+		}
+	}
+
+	/**
+	 * 建表并导入数据集，sqlNames 为要创建的表的脚本名，每解析一行调用一次 progress。
+	 * <p>
+	 * MySQL 和 PostgreSQL 使用 IMPORT_WRITERS 个连接（默认为 CPU 核数，最多 8 个）并行写入，
+	 * Sqlite 的写入是串行的，而且内存数据库无法多连接共享，所以只在主连接上顺序导入。
+	 */
+	public void importData(Iterator<DataRow> dataset, Runnable progress, String... sqlNames) throws Exception {
+		var importers = new DataImporter[sqlNames.length];
+		try {
+			for (int i = 0; i < sqlNames.length; i++) {
+				importers[i] = createTable(sqlNames[i]);
+			}
+
+			var defaultWriters = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+			var writers = Integer.parseInt(properties.getProperty("IMPORT_WRITERS", String.valueOf(defaultWriters)));
+
+			if (dialect.equals("sqlite") || writers < 2) {
+				while (dataset.hasNext()) {
+					var row = dataset.next();
+					progress.run();
+					for (var importer : importers) {
+						importer.importData(row);
+					}
+				}
+			} else {
+				var names = List.of(sqlNames);
+				var batchSize = Integer.parseInt(properties.getProperty("IMPORT_BATCH_SIZE", "1000"));
+				new ParallelImporter(this, names.contains("closure.sql"), names.contains("adjacent.sql"), writers, batchSize)
+						.run(dataset, progress);
+			}
+		} catch (Throwable ex) {
+			abort(importers, importers.length, ex);
+			throw ex;
+		}
+
+		// 按创建的相反顺序关闭，后处理脚本（建索引等）在这里执行。
+		for (int i = importers.length - 1; i >= 0; i--) {
+			try {
+				importers[i].close();
+			} catch (Throwable ex) {
+				abort(importers, i + 1, ex);
+				throw ex;
+			}
 		}
 	}
 
+	/**
+	 * 按相反顺序中止前 count 个导入器，中止时的异常附加到导致失败的异常上，不覆盖它。
+	 */
+	private static void abort(DataImporter[] importers, int count, Throwable cause) {
+		for (int i = count - 1; i >= 0; i--) {
+			if (importers[i] == null) {
+				continue;
+			}
+			try {
+				importers[i].abort();
+			} catch (Exception ex) {
+				cause.addSuppressed(ex);
+			}
+		}
+	}
+
+	/**
+	 * 以闭包表中距离为 1 的记录作为父节点指针，重新生成整个 category_tree 表，
+	 * 用于修复其它距离的记录与父子关系不一致的情况。
+	 *
+	 * @return 新闭包表的行数
+	 * @throws IllegalArgumentException 如果父节点指针有重复、缺失或构成环
+	 */
+	public long rebuildClosure() throws SQLException, IOException {
+		return rebuildClosure("SELECT descendant, ancestor FROM category_tree WHERE distance=1");
+	}
+
+	/**
+	 * 根据给定的父节点指针重新生成 category_tree 表，例如从邻接表：
+	 * <code>SELECT id, parent FROM adjacent</code>。
+	 * <p>
+	 * 新表先以临时名字写入，建好索引后再原子地替换掉原来的表，失败时原表不受影响。
+	 *
+	 * @param parentsSql 查询父节点指针的 SQL，两列依次为节点 ID 和父节点 ID，一级节点的父节点为 0。
+	 * @return 新闭包表的行数
+	 * @throws IllegalArgumentException 如果父节点指针有重复、缺失或构成环
+	 */
+	public long rebuildClosure(String parentsSql) throws SQLException, IOException {
+		var batchSize = Integer.parseInt(properties.getProperty("IMPORT_BATCH_SIZE", "1000"));
+		return new ClosureRebuilder(connection, dialect, batchSize).rebuild(parentsSql);
+	}
+
 	public boolean tableExists(String table) {
 		try (var statement = connection.createStatement()) {
 			statement.execute("SELECT 1 FROM " + table);
@@ -9,29 +9,69 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
+/**
+ * 建表并导入数据，行会先攒起来按批执行，每隔一定行数提交一次事务，关闭时提交剩余的部分并执行后处理脚本。
+ * 导入失败时应调用 abort() 而不是 close()。
+ * <p>
+ * Sqlite 在导入期间会换成更快但不安全的设置（日志放内存、不等待刷盘、加大缓存），关闭时恢复原值。
+ * 多个导入器可以共用一个连接，只要按创建的相反顺序关闭（try-with-resources 就是这样的）。
+ */
 public abstract class DataImporter implements AutoCloseable {
 
 	private static final String SEPARATOR = "-------- 下面的部分，在导入初始数据后执行 --------";
 
+	private static final String[] SQLITE_PRAGMAS = {"journal_mode", "synchronous", "cache_size"};
+	private static final String[] SQLITE_IMPORT_VALUES = {"MEMORY", "OFF", "-65536"};
+
 	private final Connection connection;
+	private final String name;
 	private final String postScript;
 
-	DataImporter(Connection connection, String sqlFile) throws IOException {
-		var parts = loadSchemaFile(sqlFile);
+	private final int batchSize;
+	private final int commitSize;
+
+	private final boolean autoCommit;
+	private final String[] pragmas;
+
+	private int rows;
+	private long startTime;
+
+	/**
+	 * @param dialect    数据库类型，与 DBManager 中的一致
+	 * @param sqlFile    建表脚本的路径
+	 * @param batchSize  每攒多少行执行一次批量插入
+	 * @param commitSize 每导入多少行提交一次事务
+	 */
+	DataImporter(Connection connection, String dialect, String sqlFile, int batchSize, int commitSize) throws Exception {
+		if (batchSize < 1 || commitSize < 1) {
+			throw new IllegalArgumentException("batchSize 和 commitSize 必须大于 0");
+		}
+		var parts = loadSchemaFile(dialect + "/" + sqlFile);
 		this.connection = connection;
+		this.name = sqlFile;
 		this.postScript = parts[1];
+		this.batchSize = batchSize;
+		this.commitSize = commitSize;
+
+		// 修改 PRAGMA 不能在事务里进行，所以先打开自动提交（会提交连接上未完成的事务）。
+		autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(true);
+		pragmas = dialect.equals("sqlite") ? swapPragmas(SQLITE_IMPORT_VALUES) : null;
+
+		// ScriptRunner 执行完会把自动提交关掉，正好用于后面的导入。
 		Utils.executeScript(connection, parts[0]);
+		connection.setAutoCommit(false);
 	}
 
 	/**
-	 * 读取 resources 目录下的 SQL 脚本文件，自动选择对应数据库的文件夹。
+	 * 读取 resources 目录下的 SQL 脚本文件，路径中要包含数据库对应的文件夹。
 	 * <p>
-	 * 加载后的脚本分为建表和后处理两个部分，
+	 * 加载后的脚本分为建表和后处理两个部分，ClosureRebuilder 也从这里取得闭包表的结构。
 	 *
 	 * @param path SQL 脚本的路径
 	 * @throws IOException 如果出现异常
 	 */
-	private String[] loadSchemaFile(String path) throws IOException {
+	static String[] loadSchemaFile(String path) throws IOException {
 		var loader = Utils.class.getClassLoader();
 
 		try (var stream = loader.getResourceAsStream(path)) {
@@ -42,31 +82,102 @@ public abstract class DataImporter implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * 设置 Sqlite 的 PRAGMA，返回它们原来的值。
+	 */
+	private String[] swapPragmas(String[] values) throws SQLException {
+		var old = new String[SQLITE_PRAGMAS.length];
+		try (var statement = connection.createStatement()) {
+			for (int i = 0; i < SQLITE_PRAGMAS.length; i++) {
+				try (var results = statement.executeQuery("PRAGMA " + SQLITE_PRAGMAS[i])) {
+					results.next();
+					old[i] = results.getString(1);
+				}
+				statement.execute("PRAGMA " + SQLITE_PRAGMAS[i] + "=" + values[i]);
+			}
+		}
+		return old;
+	}
+
 	@Override
-	public void close() {
+	public void close() throws SQLException {
+		flush();
+		connection.commit();
+
+		if (rows > 0) {
+			var seconds = (System.nanoTime() - startTime) / 1e9;
+			System.out.printf("%s 导入了 %d 行，用时 %.2f 秒，%.0f 行/秒%n", name, rows, seconds, rows / seconds);
+		}
+
 		Utils.executeScript(connection, postScript);
+		connection.setAutoCommit(true);
+		if (pragmas != null) {
+			swapPragmas(pragmas);
+		}
+		connection.setAutoCommit(autoCommit);
+	}
+
+	/**
+	 * 导入失败时代替 close() 调用：回滚未提交的行，恢复 PRAGMA 和自动提交，不执行后处理脚本。
+	 * 之前每隔 commitSize 行提交的部分无法撤销。
+	 */
+	public void abort() throws SQLException {
+		try {
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+			}
+		} finally {
+			connection.setAutoCommit(true);
+			if (pragmas != null) {
+				swapPragmas(pragmas);
+			}
+			connection.setAutoCommit(autoCommit);
+		}
 	}
 
-	public abstract void importData(DataRow items) throws SQLException;
+	public final void importData(DataRow row) throws SQLException {
+		if (rows == 0) {
+			startTime = System.nanoTime();
+		}
+		addRow(row);
+		rows++;
+
+		if (rows % batchSize == 0) {
+			flush();
+		}
+		if (rows % commitSize == 0) {
+			connection.commit();
+		}
+	}
+
+	/**
+	 * 把一行加入到批量插入语句里，等攒够了再由 flush 执行。
+	 */
+	abstract void addRow(DataRow row) throws SQLException;
+
+	/**
+	 * 执行攒下的批量插入。
+	 */
+	abstract void flush() throws SQLException;
 
 	static class Closure extends DataImporter {
 
 		private final PreparedStatement attr;
 		private final PreparedStatement tree;
 
-		public Closure(Connection connection, String postScript) throws Exception {
-			super(connection, postScript);
+		Closure(Connection connection, String dialect, int batchSize, int commitSize) throws Exception {
+			super(connection, dialect, "closure.sql", batchSize, commitSize);
 			attr = connection.prepareStatement("INSERT INTO category (id, name) VALUES (?,?)");
 			tree = connection.prepareStatement("INSERT INTO category_tree (ancestor, descendant, distance) VALUES (?,?,?)");
 		}
 
 		@Override
-		public void importData(DataRow row) throws SQLException {
+		void addRow(DataRow row) throws SQLException {
 			var ancestor = row.getAncestorIds();
 
 			attr.setLong(1, row.getId());
 			attr.setString(2, row.getName());
-			attr.execute();
+			attr.addBatch();
 
 			for (int i = 0; i < ancestor.length; i++) {
 				tree.setLong(1, ancestor[i]);
@@ -79,6 +190,11 @@ public abstract class DataImporter implements AutoCloseable {
 			tree.setLong(2, row.getId());
 			tree.setInt(3, ancestor.length);
 			tree.addBatch();
+		}
+
+		@Override
+		void flush() throws SQLException {
+			attr.executeBatch();
 			tree.executeBatch();
 		}
 	}
@@ -87,17 +203,24 @@ public abstract class DataImporter implements AutoCloseable {
 
 		private final PreparedStatement stat;
 
-		public Adjacent(Connection connection, String postScript) throws Exception {
-			super(connection, postScript);
+		Adjacent(Connection connection, String dialect, int batchSize, int commitSize) throws Exception {
+			super(connection, dialect, "adjacent.sql", batchSize, commitSize);
 			stat = connection.prepareStatement("INSERT INTO adjacent (id, parent, name) VALUES (?,?,?)");
 		}
 
 		@Override
-		public void importData(DataRow row) throws SQLException {
+		void addRow(DataRow row) throws SQLException {
+			// 祖先数组的第一个是自身，第二个才是父节点，一级节点的父节点为根。
+			var ancestor = row.getAncestorIds();
 			stat.setLong(1, row.getId());
-			stat.setLong(2, row.getAncestorIds()[0]);
+			stat.setLong(2, ancestor.length > 1 ? ancestor[1] : 0);
 			stat.setString(3, row.getName());
-			stat.execute();
+			stat.addBatch();
+		}
+
+		@Override
+		void flush() throws SQLException {
+			stat.executeBatch();
 		}
 	}
 }
@@ -1,10 +1,19 @@
 package kaciras.setup;
 
+/**
+ * 数据集中的一行，即树的一个节点。
+ * <p>
+ * 数据集可能会复用行对象，所以它的内容只保证在下一次调用 next() 之前有效，
+ * getAncestorIds() 返回的数组也不能修改。
+ */
 public interface DataRow {
 
 	String getName();
 
 	long getId();
 
+	/**
+	 * 获取节点的所有祖先（不含根节点），第一个元素是自身，往后依次是父节点、祖父节点……
+	 */
 	long[] getAncestorIds();
 }
@@ -0,0 +1,84 @@
+package kaciras.setup;
+
+/**
+ * long 到 int 的哈希表，开放寻址 + 线性探测，没有装箱，只支持插入和查找。
+ * <p>
+ * 值只能是非负数，查找不到时返回 -1。
+ */
+final class LongIntMap {
+
+	private long[] keys;
+
+	/** 值加 1 后存储，这样 0 就表示空槽，key 可以是任意值。 */
+	private int[] values;
+
+	private int size;
+
+	LongIntMap(int expected) {
+		var capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+	}
+
+	int get(long key) {
+		var mask = keys.length - 1;
+		for (var i = hash(key) & mask; values[i] != 0; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i] - 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 插入一个键值对，返回原来的值，没有则返回 -1（此时不会覆盖）。
+	 */
+	int putIfAbsent(long key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("值不能为负数");
+		}
+		var mask = keys.length - 1;
+		var i = hash(key) & mask;
+		for (; values[i] != 0; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return values[i] - 1;
+			}
+		}
+		keys[i] = key;
+		values[i] = value + 1;
+
+		// 负载因子 0.5。
+		if (++size * 2 > keys.length) {
+			rehash();
+		}
+		return -1;
+	}
+
+	private void rehash() {
+		var oldKeys = keys;
+		var oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+
+		var mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldValues[j] == 0) {
+				continue;
+			}
+			var i = hash(oldKeys[j]) & mask;
+			while (values[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	/**
+	 * ID 经常是连续的，直接取模会让它们挤在一起，所以先打散。
+	 */
+	private static int hash(long key) {
+		var h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
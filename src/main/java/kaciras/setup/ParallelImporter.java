@@ -0,0 +1,235 @@
+package kaciras.setup;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多连接并行导入，分为三个阶段，之间用有界队列连接：
+ * <ol>
+ *     <li>解析：在调用方线程中遍历数据集，复制每一行（数据集可能复用行对象）并按批放入队列。
+ *     <li>展开：单独的线程把每批节点展开成闭包表的行（每个祖先一行）。
+ *     <li>写入：多个线程各自使用一个连接，执行批量插入并提交。
+ * </ol>
+ * 队列满了前一阶段就会阻塞，所以内存中最多只有几批数据，进度条也不会比实际写入超前太多。
+ * <p>
+ * 只负责插入数据，建表和后处理仍由 DataImporter 在主连接上完成。
+ */
+final class ParallelImporter {
+
+	private record Node(long id, long parent, String name, long[] ancestors) {}
+
+	/**
+	 * 一批待写入的数据，closure 是展开后的闭包表行，每 3 个元素为一行（祖先，后代，距离）。
+	 */
+	private record Batch(List<Node> nodes, long[] closure) {}
+
+	private static final List<Node> END_NODES = List.of();
+	private static final Batch END = new Batch(END_NODES, new long[0]);
+
+	private final DBManager manager;
+	private final boolean closure;
+	private final boolean adjacent;
+	private final int writers;
+	private final int batchSize;
+
+	private final BlockingQueue<List<Node>> parsed;
+	private final BlockingQueue<Batch> expanded;
+
+	/** 第一个出错的阶段抛出的异常。 */
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+	/**
+	 * @param closure  是否导入闭包表（category 和 category_tree）
+	 * @param adjacent 是否导入邻接表
+	 * @param writers  写入线程数，也是额外打开的连接数
+	 */
+	ParallelImporter(DBManager manager, boolean closure, boolean adjacent, int writers, int batchSize) {
+		this.manager = manager;
+		this.closure = closure;
+		this.adjacent = adjacent;
+		this.writers = writers;
+		this.batchSize = batchSize;
+		this.parsed = new ArrayBlockingQueue<>(writers * 2);
+		this.expanded = new ArrayBlockingQueue<>(writers * 2);
+	}
+
+	/**
+	 * 导入数据集中的所有行，每解析一行调用一次 progress。
+	 */
+	void run(Iterator<DataRow> dataset, Runnable progress) throws Exception {
+		var executor = Executors.newFixedThreadPool(writers + 1);
+		try {
+			var tasks = new ArrayList<Future<?>>();
+			tasks.add(executor.submit(guard(this::expand)));
+			for (int i = 0; i < writers; i++) {
+				tasks.add(executor.submit(guard(this::write)));
+			}
+
+			var start = System.nanoTime();
+			var rows = 0;
+			try {
+				rows = guard(() -> parse(dataset, progress)).call();
+			} catch (Exception ignore) {
+				// 记录在 failure 里了，等其它线程都停下后再抛出。
+			}
+
+			for (var task : tasks) {
+				try {
+					task.get();
+				} catch (ExecutionException ignore) {
+					// 同上。
+				}
+			}
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+
+			var seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%d 个连接并行导入了 %d 行，用时 %.2f 秒，%.0f 行/秒%n", writers, rows, seconds, rows / seconds);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private int parse(Iterator<DataRow> dataset, Runnable progress) throws Exception {
+		var rows = 0;
+		var batch = new ArrayList<Node>(batchSize);
+
+		while (dataset.hasNext()) {
+			var row = dataset.next();
+			var ancestors = row.getAncestorIds().clone();
+			var parent = ancestors.length > 1 ? ancestors[1] : 0;
+			batch.add(new Node(row.getId(), parent, row.getName(), ancestors));
+			progress.run();
+			rows++;
+
+			if (batch.size() == batchSize) {
+				put(parsed, batch);
+				batch = new ArrayList<>(batchSize);
+			}
+		}
+
+		if (!batch.isEmpty()) {
+			put(parsed, batch);
+		}
+		put(parsed, END_NODES);
+		return rows;
+	}
+
+	private Void expand() throws Exception {
+		for (var nodes = take(parsed); nodes != END_NODES; nodes = take(parsed)) {
+			put(expanded, new Batch(nodes, closure ? expandClosure(nodes) : null));
+		}
+		for (int i = 0; i < writers; i++) {
+			put(expanded, END);
+		}
+		return null;
+	}
+
+	/**
+	 * 每个节点与它的每个祖先（包括自身和根节点）各有一行。
+	 */
+	private static long[] expandClosure(List<Node> nodes) {
+		var size = 0;
+		for (var node : nodes) {
+			size += node.ancestors.length + 1;
+		}
+
+		var rows = new long[size * 3];
+		var i = 0;
+		for (var node : nodes) {
+			var ancestors = node.ancestors;
+			for (int d = 0; d < ancestors.length; d++) {
+				rows[i++] = ancestors[d];
+				rows[i++] = node.id;
+				rows[i++] = d;
+			}
+			rows[i++] = 0;
+			rows[i++] = node.id;
+			rows[i++] = ancestors.length;
+		}
+		return rows;
+	}
+
+	private Void write() throws Exception {
+		try (var connection = manager.newConnection()) {
+			connection.setAutoCommit(false);
+			PreparedStatement attr = null, tree = null, adj = null;
+			if (closure) {
+				attr = connection.prepareStatement("INSERT INTO category (id, name) VALUES (?,?)");
+				tree = connection.prepareStatement("INSERT INTO category_tree (ancestor, descendant, distance) VALUES (?,?,?)");
+			}
+			if (adjacent) {
+				adj = connection.prepareStatement("INSERT INTO adjacent (id, parent, name) VALUES (?,?,?)");
+			}
+
+			for (var batch = take(expanded); batch != END; batch = take(expanded)) {
+				if (closure) {
+					for (var node : batch.nodes) {
+						attr.setLong(1, node.id);
+						attr.setString(2, node.name);
+						attr.addBatch();
+					}
+					var rows = batch.closure;
+					for (int i = 0; i < rows.length; i += 3) {
+						tree.setLong(1, rows[i]);
+						tree.setLong(2, rows[i + 1]);
+						tree.setInt(3, (int) rows[i + 2]);
+						tree.addBatch();
+					}
+					attr.executeBatch();
+					tree.executeBatch();
+				}
+				if (adjacent) {
+					for (var node : batch.nodes) {
+						adj.setLong(1, node.id);
+						adj.setLong(2, node.parent);
+						adj.setString(3, node.name);
+						adj.addBatch();
+					}
+					adj.executeBatch();
+				}
+				connection.commit();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 任何一个阶段出错都要通知其它阶段停止，否则它们会一直阻塞在队列上。
+	 */
+	private <T> Callable<T> guard(Callable<T> stage) {
+		return () -> {
+			try {
+				return stage.call();
+			} catch (Exception e) {
+				failure.compareAndSet(null, e);
+				throw e;
+			}
+		};
+	}
+
+	private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+		while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+			checkFailed();
+		}
+	}
+
+	private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+		T item;
+		while ((item = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+			checkFailed();
+		}
+		return item;
+	}
+
+	private void checkFailed() {
+		if (failure.get() != null) {
+			throw new CancellationException("其它阶段出错，停止导入");
+		}
+	}
+}
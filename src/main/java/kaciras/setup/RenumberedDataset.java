@@ -0,0 +1,50 @@
+package kaciras.setup;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 将另一个数据集的 ID 按首次出现的顺序重新编号为 1, 2, 3...，保持树的结构不变。
+ * <p>
+ * 行政区划代码有 12 位，超出了 Category 的 int 范围，重新编号后就能用 Category 和 Repository 来操作了。
+ */
+@RequiredArgsConstructor
+public class RenumberedDataset implements Iterator<DataRow> {
+
+	private final Map<Long, Long> ids = new HashMap<>();
+	private final Iterator<DataRow> source;
+
+	@Override
+	public boolean hasNext() {
+		return source.hasNext();
+	}
+
+	@Override
+	public DataRow next() {
+		var row = source.next();
+		var ancestors = row.getAncestorIds();
+
+		var mapped = new long[ancestors.length];
+		for (int i = 0; i < ancestors.length; i++) {
+			mapped[i] = ids.computeIfAbsent(ancestors[i], k -> ids.size() + 1L);
+		}
+		return new RenumberedRow(row.getName(), mapped);
+	}
+
+	@RequiredArgsConstructor
+	@Getter
+	private static final class RenumberedRow implements DataRow {
+
+		private final String name;
+		private final long[] ancestorIds;
+
+		@Override
+		public long getId() {
+			return ancestorIds[0];
+		}
+	}
+}
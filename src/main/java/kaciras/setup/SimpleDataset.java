@@ -7,41 +7,187 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.NoSuchElementException;
 
+/**
+ * 由父节点指针表示的数据集，每行的格式为 "ID,名称,级别,父节点ID"，级别列不使用，一级节点的父节点为 0。
+ * <p>
+ * 加载时把所有行存在基本类型的数组里，ID 到下标的映射也不装箱。输出按深度优先的先序遍历，
+ * 父节点总在子节点之前，遍历时维护从根到当前节点的路径，每行的祖先直接从路径中复制，不用逐级查找。
+ */
 public class SimpleDataset implements Iterator<DataRow>, AutoCloseable {
 
-	private final Map<Long, SimpleRow> map = new HashMap<>();
-	private final Iterator<SimpleRow> iterator;
+	private long[] ids = new long[16];
+	private long[] parentIds = new long[16];
+	private String[] names = new String[16];
+	private int size;
+
+	/** 按先序遍历排列的下标，以及每个节点的层级（一级节点为 1）。 */
+	private int[] order;
+	private int[] depths;
+
+	/** 当前节点到根的路径，path[d - 1] 是第 d 层的节点。 */
+	private long[] path = new long[16];
+
+	private int current;
 
 	public SimpleDataset() throws IOException {
-		var loader = AreaCodeDataset.class.getClassLoader();
+		this(openResource());
+	}
+
+	/**
+	 * 从任意的 CSV 读取，父节点可以出现在子节点之后。
+	 *
+	 * @throws IllegalArgumentException 如果 ID 重复、父节点不存在或者存在环。
+	 */
+	public SimpleDataset(Reader reader) throws IOException {
+		try (var lines = new BufferedReader(reader)) {
+			String line;
+			while ((line = lines.readLine()) != null) {
+				if (!line.isEmpty()) {
+					addLine(line);
+				}
+			}
+		}
+		sort();
+	}
+
+	/**
+	 * 直接使用已经读取好的父节点指针，数组不会被复制。
+	 *
+	 * @param names 节点的名字，为 null 则所有行的名字都是 null
+	 * @param size  数组中有效元素的数量
+	 */
+	SimpleDataset(long[] ids, long[] parentIds, String[] names, int size) {
+		this.ids = ids;
+		this.parentIds = parentIds;
+		this.names = names;
+		this.size = size;
+		sort();
+	}
+
+	private static Reader openResource() throws FileNotFoundException {
+		var loader = SimpleDataset.class.getClassLoader();
 		var stream = loader.getResourceAsStream("simple_categories.csv");
 		if (stream == null) {
 			throw new FileNotFoundException("simple_categories.csv");
 		}
-		try (var reader = new BufferedReader(new InputStreamReader(stream))) {
-			String line;
-			while ((line = reader.readLine()) != null) {
-				var columns = line.split(",");
-				var id = Long.parseLong(columns[0]);
-				map.put(id, new SimpleRow(id, columns[1], Long.parseLong(columns[3])));
+		return new InputStreamReader(stream, StandardCharsets.UTF_8);
+	}
+
+	private void addLine(String line) {
+		var c1 = line.indexOf(',');
+		var c2 = line.indexOf(',', c1 + 1);
+		var c3 = line.indexOf(',', c2 + 1);
+		if (c1 < 0 || c2 < 0 || c3 < 0) {
+			throw new IllegalArgumentException("格式错误：" + line);
+		}
+
+		if (size == ids.length) {
+			var capacity = size * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			parentIds = Arrays.copyOf(parentIds, capacity);
+			names = Arrays.copyOf(names, capacity);
+		}
+		ids[size] = Long.parseLong(line, 0, c1, 10);
+		names[size] = line.substring(c1 + 1, c2);
+		parentIds[size] = Long.parseLong(line, c3 + 1, line.length(), 10);
+		size++;
+	}
+
+	/**
+	 * 把子节点按父节点分组（类似计数排序），然后从一级节点开始做深度优先遍历，得到输出的顺序。
+	 */
+	private void sort() {
+		order = new int[size];
+		depths = new int[size];
+
+		var index = new LongIntMap(size);
+		for (int i = 0; i < size; i++) {
+			if (index.putIfAbsent(ids[i], i) != -1) {
+				throw new IllegalArgumentException("重复的 ID：" + ids[i]);
+			}
+		}
+
+		// 父节点的下标，一级节点的父节点为根，用 size 表示。
+		var parents = new int[size];
+		var offsets = new int[size + 2];
+		for (int i = 0; i < size; i++) {
+			var p = parentIds[i] == 0 ? size : index.get(parentIds[i]);
+			if (p == -1) {
+				throw new IllegalArgumentException(ids[i] + " 的父节点 " + parentIds[i] + " 不存在");
 			}
+			parents[i] = p;
+			offsets[p + 1]++;
+		}
+		for (int i = 0; i <= size; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+		var children = new int[size];
+		var fill = Arrays.copyOf(offsets, size + 1);
+		for (int i = 0; i < size; i++) {
+			children[fill[parents[i]]++] = i;
+		}
+
+		// 先序遍历，子节点倒序入栈以保持它们在文件中的顺序。
+		var stack = new int[size];
+		var top = 0;
+		for (int i = offsets[size + 1] - 1; i >= offsets[size]; i--) {
+			stack[top++] = children[i];
+			depths[children[i]] = 1;
+		}
+		var count = 0;
+		while (top > 0) {
+			var node = stack[--top];
+			order[count++] = node;
+			for (int i = offsets[node + 1] - 1; i >= offsets[node]; i--) {
+				stack[top++] = children[i];
+				depths[children[i]] = depths[node] + 1;
+			}
+		}
+
+		// 从根出发到不了的节点，它们的父节点指针一定构成了环。
+		if (count != size) {
+			throw new IllegalArgumentException("数据中存在环，有 " + (size - count) + " 个节点无法从根到达");
 		}
-		iterator = map.values().iterator();
 	}
 
 	@Override
 	public boolean hasNext() {
-		return iterator.hasNext();
+		return current < size;
 	}
 
 	@Override
 	public DataRow next() {
-		return iterator.next();
+		if (current == size) {
+			throw new NoSuchElementException();
+		}
+		var i = order[current++];
+		var depth = depths[i];
+
+		// 先序遍历中，路径的前 depth - 1 层正好是当前节点的祖先。
+		if (depth > path.length) {
+			path = Arrays.copyOf(path, path.length * 2);
+		}
+		path[depth - 1] = ids[i];
+
+		var ancestors = new long[depth];
+		for (int d = 0; d < depth; d++) {
+			ancestors[d] = path[depth - 1 - d];
+		}
+		return new SimpleRow(ids[i], names == null ? null : names[i], ancestors);
+	}
+
+	public long getTotal() {
+		return size;
+	}
+
+	public long getProgress() {
+		return current;
 	}
 
 	@Override
@@ -49,21 +195,10 @@ public class SimpleDataset implements Iterator<DataRow>, AutoCloseable {
 
 	@RequiredArgsConstructor
 	@Getter
-	class SimpleRow implements DataRow {
-
-		final long id;
-		final String name;
-		final long parent;
+	private static final class SimpleRow implements DataRow {
 
-		@Override
-		public long[] getAncestorIds() {
-			var list = new ArrayList<Long>();
-			for (var p = id; p != 0; p = map.get(p).parent) {
-				list.add(p);
-			}
-			return list.stream()
-					.mapToLong(Long::longValue)
-					.toArray();
-		}
+		private final long id;
+		private final String name;
+		private final long[] ancestorIds;
 	}
 }
@@ -0,0 +1,186 @@
+package kaciras.setup;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Iterator;
+import java.util.SplittableRandom;
+
+/**
+ * 根据种子随机生成一棵树，不需要外部文件，用于在百万到千万级的数据上测试导入和查询。
+ * <p>
+ * 节点按层生成，ID 从 1 开始连续编号，父节点总是先于子节点输出。树的形状由以下参数控制：
+ * <ul>
+ *     <li>depth：层数，每层至少有一个节点。
+ *     <li>growth：相邻两层节点数之比，大于 1 时越往下越多（类似行政区划），等于 1 时每层一样多。
+ *     <li>skew：子节点在上一层中选择父节点的偏斜度，0 为均匀，越大则越集中在少数父节点下。
+ * </ul>
+ * 极端的形状可以用 {@link #chain(long, int)} 和 {@link #wide(long, int)} 创建，
+ * 满 N 叉树则用 {@link #complete(int, int)} 创建。
+ */
+public class SyntheticDataset implements Iterator<DataRow> {
+
+	/**
+	 * MySQL 的 distance 列是 tinyint unsigned，树再深就存不下了。
+	 */
+	private static final int MAX_DEPTH = 255;
+
+	private final SplittableRandom random;
+	private final double skew;
+
+	/**
+	 * 满 N 叉树的分支数，为 0 时随机选择父节点。
+	 */
+	private final int fanOut;
+
+	/** 每个节点的父节点，下标为 ID，满 N 叉树的父节点可以直接算出来，不需要它。 */
+	private final int[] parents;
+
+	/** 每层第一个节点的 ID，levelStart[depth + 1] 为总数 + 1。 */
+	private final int[] levelStart;
+
+	@Getter
+	private final long total;
+
+	private int current;
+	private int level = 1;
+
+	public SyntheticDataset(long seed, int nodes, int depth, double growth, double skew) {
+		this(seed, skew, 0, splitLevels(nodes, depth, growth, skew));
+	}
+
+	private SyntheticDataset(long seed, double skew, int fanOut, int[] levelStart) {
+		this.random = new SplittableRandom(seed);
+		this.skew = skew;
+		this.fanOut = fanOut;
+		this.levelStart = levelStart;
+		this.total = levelStart[levelStart.length - 1] - 1;
+		this.parents = fanOut > 0 ? null : new int[(int) total + 1];
+	}
+
+	private static int[] splitLevels(int nodes, int depth, double growth, double skew) {
+		if (depth < 1 || depth > MAX_DEPTH) {
+			throw new IllegalArgumentException("depth 必须在 1 到 " + MAX_DEPTH + " 之间");
+		}
+		if (nodes < depth) {
+			throw new IllegalArgumentException("节点数不能少于层数");
+		}
+		if (growth <= 0 || skew < 0) {
+			throw new IllegalArgumentException("growth 必须为正数，skew 不能为负");
+		}
+		var levelStart = new int[depth + 2];
+
+		// 按累计比例划分每层的范围，同时保证每层至少有一个节点。
+		var weights = new double[depth + 1];
+		var sum = 0.0;
+		for (int i = 1; i <= depth; i++) {
+			sum += weights[i] = Math.pow(growth, i - 1);
+		}
+		var cumulative = 0.0;
+		levelStart[1] = 1;
+		for (int i = 1; i < depth; i++) {
+			cumulative += weights[i];
+			var end = (int) Math.round(nodes * cumulative / sum);
+			end = Math.max(end, levelStart[i]);
+			end = Math.min(end, nodes - (depth - i));
+			levelStart[i + 1] = end + 1;
+		}
+		levelStart[depth + 1] = nodes + 1;
+		return levelStart;
+	}
+
+	/**
+	 * 深度为 depth 的满 N 叉树，按层序编号，与二叉堆类似：根为 0，节点 n 的第 j 个子节点（j 从 1 开始）为 n * fanOut + j。
+	 * 树的形状与种子无关，父节点可以直接算出来，所以不需要保存每个节点的父节点。
+	 */
+	public static SyntheticDataset complete(int fanOut, int depth) {
+		if (fanOut < 2 || depth < 1) {
+			throw new IllegalArgumentException("fanOut 至少为 2，depth 至少为 1");
+		}
+		var levelStart = new int[depth + 2];
+		long start = 1, layer = 1;
+		for (int i = 1; i <= depth; i++) {
+			if (start > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("节点数超出了 int 的范围");
+			}
+			levelStart[i] = (int) start;
+			start += layer *= fanOut;
+		}
+		if (start > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("节点数超出了 int 的范围");
+		}
+		levelStart[depth + 1] = (int) start;
+		return new SyntheticDataset(0, 0, fanOut, levelStart);
+	}
+
+	/**
+	 * 一条深度为 depth 的链，每层只有一个节点。
+	 */
+	public static SyntheticDataset chain(long seed, int depth) {
+		return new SyntheticDataset(seed, depth, depth, 1, 0);
+	}
+
+	/**
+	 * 只有一层的树，所有节点都是根的子节点。
+	 */
+	public static SyntheticDataset wide(long seed, int nodes) {
+		return new SyntheticDataset(seed, nodes, 1, 1, 0);
+	}
+
+	@Override
+	public boolean hasNext() {
+		return current < total;
+	}
+
+	@Override
+	public DataRow next() {
+		var id = ++current;
+		while (id >= levelStart[level + 1]) {
+			level++;
+		}
+
+		if (fanOut > 0) {
+			var ancestors = new long[level];
+			long p = id;
+			for (int i = 0; i < level; i++, p = (p - 1) / fanOut) {
+				ancestors[i] = p;
+			}
+			return new SyntheticRow(ancestors);
+		}
+
+		if (level > 1) {
+			var start = levelStart[level - 1];
+			var width = levelStart[level] - start;
+			var u = Math.pow(random.nextDouble(), 1 + skew);
+			parents[id] = start + (int) (width * u);
+		}
+
+		var ancestors = new long[level];
+		var p = id;
+		for (int i = 0; i < level; i++, p = parents[p]) {
+			ancestors[i] = p;
+		}
+		return new SyntheticRow(ancestors);
+	}
+
+	public long getProgress() {
+		return current;
+	}
+
+	@RequiredArgsConstructor
+	private static final class SyntheticRow implements DataRow {
+
+		@Getter
+		private final long[] ancestorIds;
+
+		@Override
+		public String getName() {
+			return "node-" + ancestorIds[0];
+		}
+
+		@Override
+		public long getId() {
+			return ancestorIds[0];
+		}
+	}
+}
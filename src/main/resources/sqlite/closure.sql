@@ -19,4 +19,6 @@ INSERT INTO category (id, name) VALUES (0, 'root');
 
 -------- 下面的部分，在导入初始数据后执行 --------
 
-CREATE INDEX index_0 ON category_tree (ancestor, distance);
+-- index_0 用于查询下 N 级分类，index_1 用于查询整个子树，末尾的 descendant 使分页查询可以按 ID 顺序扫描索引。
+CREATE INDEX index_0 ON category_tree (ancestor, distance, descendant);
+CREATE INDEX index_1 ON category_tree (ancestor, descendant);
@@ -1,6 +1,13 @@
 package kaciras;
 
+import kaciras.setup.SimpleDataset;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -16,4 +23,46 @@ final class CategoryAssert {
 		var ids = list.stream().mapToInt(Category::getId).toArray();
 		assertThat(ids).containsExactlyInAnyOrder(expect);
 	}
+
+	/**
+	 * 检查关系表的全部记录，是否与由父节点推算出的闭包完全一致。
+	 *
+	 * @param connection 数据库连接
+	 * @param parents    除根节点外，每个节点的 ID 到其父节点 ID 的映射
+	 */
+	public static void assertClosure(Connection connection, Map<Long, Long> parents) throws SQLException {
+		var expect = new ArrayList<String>();
+		expect.add("0,0,0");
+		for (var id : parents.keySet()) {
+			var distance = 0;
+			for (var p = id; p != 0; p = parents.get(p)) {
+				expect.add(p + "," + id + "," + distance++);
+			}
+			expect.add("0," + id + "," + distance);
+		}
+
+		var actual = new ArrayList<String>();
+		try (var stat = connection.createStatement()) {
+			var results = stat.executeQuery("SELECT ancestor, descendant, distance FROM category_tree");
+			while (results.next()) {
+				actual.add(results.getLong(1) + "," + results.getLong(2) + "," + results.getInt(3));
+			}
+		}
+
+		assertThat(actual).containsExactlyInAnyOrderElementsOf(expect);
+	}
+
+	/**
+	 * 读取 SimpleDataset 中每个节点的父节点，作为 assertClosure 的参数。
+	 */
+	public static Map<Long, Long> loadParents() throws Exception {
+		var parents = new HashMap<Long, Long>();
+		try (var ds = new SimpleDataset()) {
+			while (ds.hasNext()) {
+				var ancestors = ds.next().getAncestorIds();
+				parents.put(ancestors[0], ancestors.length > 1 ? ancestors[1] : 0L);
+			}
+		}
+		return parents;
+	}
 }
@@ -0,0 +1,140 @@
+package kaciras;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(DatabaseTestLifecycle.class)
+final class CategoryCacheTest {
+
+	private Repository repo;
+	private CategoryCache cache;
+
+	@BeforeEach
+	void setUp() {
+		repo = new Repository(Category.mapper, 4);
+		cache = repo.getCache();
+	}
+
+	@Test
+	void disabled() {
+		assertThat(new Repository(Category.mapper).getCache()).isNull();
+		assertThatThrownBy(() -> new Repository(Category.mapper, -1))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void hitAndMiss() {
+		var first = repo.findById(1);
+		var second = repo.findById(1);
+
+		assertThat(second).usingRecursiveComparison().isEqualTo(first);
+		assertThat(second).isNotSameAs(first);
+		assertThat(cache.getMisses()).isEqualTo(1);
+		assertThat(cache.getHits()).isEqualTo(1);
+		assertThat(cache.getHitRate()).isEqualTo(0.5);
+	}
+
+	@Test
+	void notFoundIsNotCached() {
+		assertThat(repo.findById(648)).isNull();
+		assertThat(repo.findById(648)).isNull();
+		assertThat(cache.getMisses()).isEqualTo(2);
+		assertThat(cache.size()).isEqualTo(0);
+	}
+
+	@Test
+	void copyOnRead() {
+		repo.findById(1).setName("modified");
+		assertThat(repo.findById(1).getName()).isNotEqualTo("modified");
+	}
+
+	@Test
+	void eviction() {
+		for (int id = 1; id <= 6; id++) {
+			repo.findById(id);
+		}
+		assertThat(cache.size()).isEqualTo(4);
+		assertThat(cache.getEvictions()).isEqualTo(2);
+
+		repo.findById(1);
+		assertThat(cache.getHits()).isEqualTo(0);
+		repo.findById(6);
+		assertThat(cache.getHits()).isEqualTo(1);
+	}
+
+	/* 最近命中过的分类会被时钟指针跳过一次 */
+	@Test
+	void referencedSurvives() {
+		for (int id = 1; id <= 4; id++) {
+			repo.findById(id);
+		}
+		repo.findById(1);
+		repo.findById(5);
+
+		assertThat(cache.getEvictions()).isEqualTo(1);
+		repo.findById(1);
+		assertThat(cache.getHits()).isEqualTo(2);
+	}
+
+	/* 加载期间发生了失效，加载的结果可能是旧的，不能存入 */
+	@Test
+	void staleLoadIsDiscarded() {
+		var loaded = cache.get(1, id -> {
+			var category = Category.mapper.selectById(id);
+			cache.invalidate(id);
+			return category;
+		});
+		assertThat(loaded).isNotNull();
+		assertThat(cache.size()).isEqualTo(0);
+	}
+
+	@Test
+	void invalidateOnUpdate() {
+		var category = repo.findById(1);
+		category.setName("NewName");
+		repo.update(category);
+
+		assertThat(repo.findById(1).getName()).isEqualTo("NewName");
+	}
+
+	/* 提交前其它连接读到的还是旧数据，它被存入缓存后要在提交时清除 */
+	@Test
+	void invalidateAfterCommit() {
+		var category = repo.findById(1);
+		var oldName = category.getName();
+		category.setName("NewName");
+		repo.update(category);
+
+		var stale = new Category();
+		stale.setId(1);
+		stale.setName(oldName);
+		cache.get(1, id -> stale);
+		assertThat(repo.findById(1).getName()).isEqualTo(oldName);
+
+		repo.committed();
+		assertThat(repo.findById(1).getName()).isEqualTo("NewName");
+	}
+
+	@Test
+	void invalidateOnDelete() {
+		repo.findById(1);
+		repo.delete(1);
+		assertThat(repo.findById(1)).isNull();
+	}
+
+	@Test
+	void invalidateOnDeleteTree() {
+		repo.findById(1);
+		repo.findById(2);
+		repo.findById(3);
+
+		repo.deleteTree(1);
+		assertThat(repo.findById(1)).isNull();
+		assertThat(repo.findById(2)).isNull();
+		assertThat(repo.findById(3)).isNull();
+	}
+}
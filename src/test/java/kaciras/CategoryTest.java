@@ -1,8 +1,11 @@
 package kaciras;
 
+import org.apache.ibatis.cursor.Cursor;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import java.util.ArrayList;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
@@ -67,6 +70,77 @@ final class CategoryTest {
 		CategoryAssert.assertContain(list, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13);
 	}
 
+	@Test
+	void streamTree() throws Exception {
+		var list = new ArrayList<Category>();
+		try (var cursor = (Cursor<Category>) repository.findById(5).streamTree()) {
+			cursor.forEach(list::add);
+		}
+		CategoryAssert.assertContain(list, 5, 6, 7, 8, 9, 10);
+	}
+
+	@Test
+	void getTreeToDepth() {
+		var list = repository.findById(2).getTree(2);
+		assertThat(list).extracting(LevelQueryVO::getId).containsExactly(2, 3, 4, 5, 6, 7);
+		assertThat(list).extracting(LevelQueryVO::getDepth).containsExactly(0, 1, 1, 1, 2, 2);
+		assertThat(list).extracting(LevelQueryVO::getParentId).containsExactly(1, 2, 2, 2, 5, 5);
+
+		assertThat(repository.findById(0).getTree(0))
+				.singleElement().extracting(LevelQueryVO::getParentId).isNull();
+	}
+
+	@Test
+	void getLevels() {
+		var list = repository.findById(2).getLevels(2, 3);
+		assertThat(list).extracting(LevelQueryVO::getId).containsExactly(6, 7, 8, 9, 10);
+		assertThat(list).extracting(LevelQueryVO::getParentId).containsExactly(5, 5, 6, 7, 7);
+
+		assertThat(repository.findById(13).getLevels(1, 5)).isEmpty();
+
+		var category = repository.findById(2);
+		assertThatThrownBy(() -> category.getLevels(-1, 2)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> category.getLevels(3, 2)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void getTreePaged() {
+		var category = repository.findById(0);
+		var ids = new ArrayList<Integer>();
+		String token = null;
+		do {
+			var page = category.getTree(token, 4);
+			assertThat(page.items()).hasSizeLessThanOrEqualTo(4);
+			page.items().forEach(c -> ids.add(c.getId()));
+			token = page.next();
+		} while (token != null);
+
+		assertThat(ids).containsExactly(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13);
+	}
+
+	@Test
+	void getSubLayerPaged() {
+		var category = repository.findById(2);
+		var first = category.getSubLayer(1, null, 2);
+		CategoryAssert.assertList(first.items(), 3, 4);
+		assertThat(first.next()).isNotNull();
+
+		var second = category.getSubLayer(1, first.next(), 2);
+		CategoryAssert.assertList(second.items(), 5);
+		assertThat(second.next()).isNull();
+	}
+
+	@Test
+	void invalidPage() {
+		var category = repository.findById(2);
+		assertThatThrownBy(() -> category.getTree("not a token", 10))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> category.getTree(null, 0))
+				.isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> category.getTree(null, Page.MAX_SIZE + 1))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
 	/* 不能移动到自己下面，根分类也不能够移动 */
 	@Test
 	void invalidMove() {
@@ -102,6 +176,9 @@ final class CategoryTest {
 
 		// 子树自动升级
 		CategoryAssert.assertList(category.getChildren());
+		CategoryAssert.assertList(repository.findById(1).getChildren(), 3, 4, 5);
+		CategoryAssert.assertList(repository.findById(8).getPath(), 1, 5, 6, 8);
+		CategoryAssert.assertList(repository.findById(2).getPath(), 1, 5, 7, 2);
 	}
 
 	/* 不能移动到自己下面，根分类也不能够移动 */
@@ -142,5 +219,22 @@ final class CategoryTest {
 		/* 子树也随之移动 */
 		CategoryAssert.assertList(category.getChildren(), 3, 4, 5);
 		CategoryAssert.assertList(repository.findById(1).getChildren(), 7);
+
+		/* 深层节点的路径也要正确 */
+		CategoryAssert.assertList(repository.findById(8).getPath(), 1, 7, 2, 5, 6, 8);
+		CategoryAssert.assertList(repository.findById(9).getPath(), 1, 7, 9);
+	}
+
+	@Test
+	void moveTreeToUnrelated() {
+		var newParent = repository.findById(12);
+		var category = repository.findById(5);
+
+		category.moveTreeTo(newParent);
+
+		CategoryAssert.assertList(repository.findById(2).getChildren(), 3, 4);
+		CategoryAssert.assertList(repository.findById(10).getPath(), 11, 12, 5, 7, 10);
+		CategoryAssert.assertContain(repository.findById(11).getTree(), 11, 12, 13, 5, 6, 7, 8, 9, 10);
+		assertThat(repository.findById(8).getLevel()).isEqualTo(5);
 	}
 }
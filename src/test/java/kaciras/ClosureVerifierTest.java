@@ -0,0 +1,83 @@
+package kaciras;
+
+import kaciras.setup.DBManager;
+import lombok.Cleanup;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(DatabaseTestLifecycle.class)
+final class ClosureVerifierTest {
+
+	public DBManager manager;
+
+	/**
+	 * 在事务里修改数据，测试结束后回滚。这里的语句不经过 Mybatis，所以 DatabaseTestLifecycle 的回滚管不到。
+	 */
+	private void corrupt(String... sqls) throws Exception {
+		var connection = manager.getConnection();
+		connection.setAutoCommit(false);
+		@Cleanup var stat = connection.createStatement();
+		for (var sql : sqls) {
+			stat.executeUpdate(sql);
+		}
+	}
+
+	@AfterEach
+	void rollback() throws Exception {
+		var connection = manager.getConnection();
+		if (!connection.getAutoCommit()) {
+			connection.rollback();
+			connection.setAutoCommit(true);
+		}
+	}
+
+	@Test
+	void consistent() throws Exception {
+		var report = ClosureVerifier.verify(manager, 1);
+		assertThat(report.nodes()).isEqualTo(14);
+		assertThat(report.violations()).isZero();
+	}
+
+	@Test
+	void invalidThreads() {
+		assertThatThrownBy(() -> ClosureVerifier.verify(manager, 0)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void missingAncestor() throws Exception {
+		corrupt("DELETE FROM category_tree WHERE descendant=3 AND distance=2");
+
+		var report = ClosureVerifier.verify(manager, 1);
+		assertThat(report.samples()).extracting(ClosureVerifier.Violation::id).containsExactly(3L);
+	}
+
+	/* 只改了父节点记录，节点 2 自身的链与新的父节点一致，而它的子节点与它对不上 */
+	@Test
+	void wrongParent() throws Exception {
+		corrupt("UPDATE category_tree SET ancestor=11 WHERE descendant=2 AND distance=1");
+
+		var report = ClosureVerifier.verify(manager, 1);
+		assertThat(report.samples()).extracting(ClosureVerifier.Violation::id).containsExactlyInAnyOrder(3L, 4L, 5L);
+	}
+
+	/* 根节点是归纳的起点，多出的记录必须报告，即使它没有父节点 */
+	@Test
+	void extraRootLink() throws Exception {
+		corrupt("INSERT INTO category_tree VALUES (0, 0, 2)");
+
+		var report = ClosureVerifier.verify(manager, 1);
+		assertThat(report.samples()).extracting(ClosureVerifier.Violation::id).contains(0L);
+	}
+
+	@Test
+	void duplicateLinks() throws Exception {
+		corrupt("INSERT INTO category_tree VALUES (0, 4, 1)", "INSERT INTO category_tree VALUES (7, 7, 1)");
+
+		var report = ClosureVerifier.verify(manager, 1);
+		assertThat(report.samples()).extracting(ClosureVerifier.Violation::id).contains(4L, 7L);
+	}
+}
@@ -0,0 +1,130 @@
+package kaciras;
+
+import kaciras.setup.DBManager;
+import kaciras.setup.DataRow;
+import kaciras.setup.SimpleDataset;
+import lombok.Cleanup;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(DatabaseTestLifecycle.class)
+final class DBManagerTest {
+
+	public DBManager manager;
+
+	/* 删掉间接的关系、加入错误的记录，重建后应当与父节点推算出的一致 */
+	@Test
+	void rebuildClosure() throws Exception {
+		var connection = manager.getConnection();
+		@Cleanup var stat = connection.createStatement();
+		stat.executeUpdate("DELETE FROM category_tree WHERE distance > 1");
+		stat.executeUpdate("INSERT INTO category_tree VALUES (5, 11, 3)");
+
+		var schema = describe(connection);
+		var rows = manager.rebuildClosure();
+		CategoryAssert.assertClosure(connection, CategoryAssert.loadParents());
+		assertThat(describe(connection)).isEqualTo(schema);
+
+		var results = stat.executeQuery("SELECT COUNT(*) FROM category_tree");
+		results.next();
+		assertThat(results.getLong(1)).isEqualTo(rows);
+
+		// 主键和索引也要有。
+		assertThatThrownBy(() -> stat.executeUpdate("INSERT INTO category_tree VALUES (0, 0, 0)"))
+				.isInstanceOf(SQLException.class);
+	}
+
+	@Test
+	void rebuildClosureInvalid() throws Exception {
+		var connection = manager.getConnection();
+		@Cleanup var stat = connection.createStatement();
+		stat.executeUpdate("INSERT INTO category_tree VALUES (2, 1, 1)");
+
+		assertThatThrownBy(() -> manager.rebuildClosure()).isInstanceOf(IllegalArgumentException.class);
+
+		// 出错时原来的表不变。
+		stat.executeUpdate("DELETE FROM category_tree WHERE ancestor=2 AND descendant=1");
+		CategoryAssert.assertClosure(connection, CategoryAssert.loadParents());
+	}
+
+	/* 导入出错时回滚并恢复设置，不执行后处理脚本，抛出的是原来的异常 */
+	@Test
+	void importDataFailed() throws Exception {
+		var connection = manager.getConnection();
+		var autoCommit = connection.getAutoCommit();
+		var synchronous = querySingle(connection, "PRAGMA synchronous");
+
+		var error = new IllegalStateException("读取数据集出错");
+		@Cleanup var rows = new SimpleDataset();
+		var dataset = new Iterator<DataRow>() {
+			private int count;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public DataRow next() {
+				if (++count > 5) {
+					throw error;
+				}
+				return rows.next();
+			}
+		};
+
+		try {
+			assertThatThrownBy(() -> manager.importData(dataset, () -> {}, "adjacent.sql")).isSameAs(error);
+			assertThat(error.getSuppressed()).isEmpty();
+			assertThat(connection.getAutoCommit()).isEqualTo(autoCommit);
+
+			@Cleanup var indexes = connection.getMetaData().getIndexInfo(null, null, "adjacent", false, false);
+			while (indexes.next()) {
+				assertThat(indexes.getString("INDEX_NAME")).isNotEqualToIgnoringCase("idx_adjacent_id");
+			}
+			if (manager.getDialect().equals("sqlite")) {
+				assertThat(querySingle(connection, "PRAGMA synchronous")).isEqualTo(synchronous);
+			}
+		} finally {
+			@Cleanup var stat = connection.createStatement();
+			stat.execute("DROP TABLE IF EXISTS adjacent");
+		}
+	}
+
+	private static String querySingle(Connection connection, String sql) throws SQLException {
+		@Cleanup var stat = connection.createStatement();
+		@Cleanup var results = stat.executeQuery(sql);
+		return results.next() ? results.getString(1) : null;
+	}
+
+	/**
+	 * 列出 category_tree 每一列的类型和是否可空，以及主键和索引的列，用于比较重建前后的表结构。
+	 */
+	private static List<String> describe(Connection connection) throws SQLException {
+		var meta = connection.getMetaData();
+		var list = new ArrayList<String>();
+
+		@Cleanup var columns = meta.getColumns(null, null, "category_tree", null);
+		while (columns.next()) {
+			list.add(columns.getString("COLUMN_NAME") + " " + columns.getString("TYPE_NAME") + " " + columns.getString("IS_NULLABLE"));
+		}
+		@Cleanup var keys = meta.getPrimaryKeys(null, null, "category_tree");
+		while (keys.next()) {
+			list.add("PK " + keys.getShort("KEY_SEQ") + " " + keys.getString("COLUMN_NAME"));
+		}
+		@Cleanup var indexes = meta.getIndexInfo(null, null, "category_tree", false, false);
+		while (indexes.next()) {
+			list.add("INDEX " + indexes.getString("INDEX_NAME") + " " + indexes.getShort("ORDINAL_POSITION") + " " + indexes.getString("COLUMN_NAME"));
+		}
+		return list;
+	}
+}
@@ -0,0 +1,171 @@
+package kaciras;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import kaciras.setup.DBManager;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 启动一个本地的 HTTP 服务器，通过真实的请求测试 Dispatcher。
+ * Dispatcher 会提交事务，所以这里的请求只做查询，或者在出错后整体回滚。
+ * 控制器以外的异常由 Dispatcher 抛出，这里与 Main 一样返回 500。
+ */
+@ExtendWith(DatabaseTestLifecycle.class)
+final class DispatcherTest {
+
+	public DBManager manager;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final HttpClient client = HttpClient.newHttpClient();
+
+	private CategoryMapper saved;
+	private Repository repo;
+	private HttpServer server;
+
+	/** 为 true 时连接的 commit() 会抛出异常，模拟 SQLITE_BUSY 之类的提交失败。 */
+	private volatile boolean failCommit;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		var dataSource = new TrackingDataSource(failCommitIfSet(manager.getConnection()));
+		var sessions = SqlSessionManager.newInstance(Utils.createSessionFactory(dataSource));
+
+		saved = Category.mapper;
+		Category.mapper = sessions.getMapper(CategoryMapper.class);
+		Category.index = TreeIndex.load(Category.mapper);
+		Category.snapshots = VersionedTree.load(Category.mapper);
+		repo = new Repository(Category.mapper, 16);
+
+		var controller = new Controller(dataSource, repo);
+		var dispatcher = new Dispatcher(dataSource, sessions, controller, new RequestGate(1, 0, 1000));
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/api/", exchange -> {
+			try {
+				dispatcher.handle(exchange);
+			} catch (Exception e) {
+				exchange.sendResponseHeaders(500, -1);
+			} finally {
+				exchange.close();
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+		Category.mapper = saved;
+		Category.index = null;
+		Category.snapshots = null;
+	}
+
+	private Connection failCommitIfSet(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(
+				Connection.class.getClassLoader(),
+				new Class[]{Connection.class},
+				(proxy, method, args) -> {
+					if (failCommit && method.getName().equals("commit")) {
+						throw new SQLException("提交失败");
+					}
+					try {
+						return method.invoke(connection, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+
+	private HttpResponse<String> post(String path, String body) throws Exception {
+		var uri = URI.create("http://localhost:" + server.getAddress().getPort() + path);
+		var request = HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString(body)).build();
+		return client.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	@Test
+	void batch() throws Exception {
+		var response = post("/api/batch", "[" +
+				"{\"method\": \"getLevel\", \"params\": {\"id\": 9}}," +
+				"{\"params\": {\"id\": 2, \"depth\": 1}, \"method\": \"getSubLayer\"}," +
+				"{\"method\": \"getPath\", \"params\": {\"ancestor\": 0, \"descendant\": 9}}" +
+				"]");
+		assertThat(response.statusCode()).isEqualTo(200);
+
+		var results = objectMapper.readTree(response.body()).get("results");
+		assertThat(results).hasSize(3);
+		assertThat(results.get(0).get("data").asInt()).isEqualTo(5);
+		assertThat(results.get(1).get("data").findValuesAsText("name")).containsExactly("硬盘", "CPU", "显卡");
+		assertThat(results.get(2).get("data")).hasSize(5);
+		for (var result : results) {
+			assertThat(result.get("sqls")).isNotEmpty();
+		}
+	}
+
+	/* 后面的调用出错，前面的修改在数据库、索引、快照和缓存中都不应留下痕迹 */
+	@Test
+	void batchRollback() throws Exception {
+		var count = Category.mapper.selectCount();
+		var version = Category.snapshots.current().getVersion();
+
+		var response = post("/api/batch", "[" +
+				"{\"method\": \"update\", \"params\": {\"id\": 5, \"newName\": \"Changed\"}}," +
+				"{\"method\": \"getPath\", \"params\": {\"ancestor\": 0, \"descendant\": 5}}," +
+				"{\"method\": \"create\", \"params\": {\"parentId\": 9, \"name\": \"New\"}}," +
+				"{\"method\": \"move\", \"params\": {\"id\": 1, \"parent\": 1, \"single\": false}}" +
+				"]");
+		assertThat(response.statusCode()).isEqualTo(400);
+
+		JsonNode error = objectMapper.readTree(response.body());
+		assertThat(error.get("index").asInt()).isEqualTo(3);
+		assertThat(error.get("type").asText()).isEqualTo("IllegalArgumentException");
+
+		assertThat(Category.mapper.selectCount()).isEqualTo(count);
+		assertThat(Category.mapper.selectById(5).getName()).isEqualTo("显卡");
+
+		assertThat(Category.index.getDescendantIds(9)).isEmpty();
+		assertThat(Category.snapshots.current().getName(5)).isEqualTo("显卡");
+		assertThat(Category.snapshots.current().getChildren(9)).isEmpty();
+		assertThat(Category.snapshots.current().getVersion()).isGreaterThan(version);
+
+		assertThat(repo.findById(5).getName()).isEqualTo("显卡");
+	}
+
+	/* 控制器执行成功但提交失败，同样要回滚并丢弃内存中的修改 */
+	@Test
+	void commitFailure() throws Exception {
+		repo.findById(5);
+
+		failCommit = true;
+		var response = post("/api/update", "{\"id\": 5, \"newName\": \"Changed\"}");
+		failCommit = false;
+		assertThat(response.statusCode()).isEqualTo(500);
+
+		assertThat(Category.mapper.selectById(5).getName()).isEqualTo("显卡");
+		assertThat(Category.snapshots.current().getName(5)).isEqualTo("显卡");
+		assertThat(repo.findById(5).getName()).isEqualTo("显卡");
+	}
+
+	@Test
+	void singleCallError() throws Exception {
+		var response = post("/api/move", "{\"id\": 1, \"parent\": 1, \"single\": false}");
+		assertThat(response.statusCode()).isEqualTo(400);
+		assertThat(objectMapper.readTree(response.body()).has("index")).isFalse();
+	}
+}
@@ -1,14 +1,22 @@
 package kaciras;
 
+import kaciras.setup.DBManager;
+import org.apache.ibatis.session.SqlSession;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 @ExtendWith(DatabaseTestLifecycle.class)
 final class RepositoryTest {
 
+	public DBManager manager;
+	public SqlSession session;
 	public Repository repository;
 
 	@Test
@@ -54,6 +62,67 @@ final class RepositoryTest {
 		assertThat(got).usingRecursiveComparison().isEqualTo(category);
 	}
 
+	@Test
+	void addAll() {
+		var categories = new ArrayList<Category>();
+		for (var name : new String[]{"A", "B", "C"}) {
+			var category = new Category();
+			category.setName(name);
+			categories.add(category);
+		}
+
+		var ids = repository.addAll(categories, repository.findById(11));
+
+		/* 返回的 ID 与列表的顺序一致，并设置到对象上 */
+		assertThat(ids).hasSize(3).isSorted();
+		assertThat(categories).extracting(Category::getId).containsExactly(ids[0], ids[1], ids[2]);
+		assertThat(repository.findById(ids[1]).getName()).isEqualTo("B");
+
+		CategoryAssert.assertList(repository.findById(ids[2]).getPath(), 11, ids[2]);
+		CategoryAssert.assertContain(repository.findById(11).getChildren(), 12, 13, ids[0], ids[1], ids[2]);
+	}
+
+	@Test
+	void addAllInvalid() {
+		var categories = List.of(new Category());
+		var parent = repository.findById(0);
+
+		assertThatThrownBy(() -> repository.addAll(categories, parent)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> repository.addAll(List.of(), null)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void graft() throws Exception {
+		var spec = TreeSpec.of("A",
+				TreeSpec.of("B", TreeSpec.of("D")),
+				TreeSpec.of("C")
+		);
+
+		var ids = repository.graft(repository.findById(12), spec);
+
+		/* 按先序遍历的顺序返回 ID：A B D C */
+		assertThat(ids).hasSize(4);
+		assertThat(repository.findById(ids[2]).getName()).isEqualTo("D");
+		CategoryAssert.assertList(repository.findById(ids[2]).getPath(), 11, 12, ids[0], ids[1], ids[2]);
+
+		var parents = CategoryAssert.loadParents();
+		parents.put((long) ids[0], 12L);
+		parents.put((long) ids[1], (long) ids[0]);
+		parents.put((long) ids[2], (long) ids[1]);
+		parents.put((long) ids[3], (long) ids[0]);
+		CategoryAssert.assertClosure(manager.getConnection(), parents);
+	}
+
+	@Test
+	void graftInvalid() {
+		var spec = TreeSpec.of("A");
+		var parent = new Category();
+		parent.setId(45);
+
+		assertThatThrownBy(() -> repository.graft(parent, spec)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> repository.graft(null, spec)).isInstanceOf(IllegalArgumentException.class);
+	}
+
 	@Test
 	void count() {
 		assertThat(repository.size()).isEqualTo(13);
@@ -75,6 +144,25 @@ final class RepositoryTest {
 		CategoryAssert.assertList(repository.findById(7).getPath(), 2, 5, 7);
 	}
 
+	/*
+	 * 依次删除每个节点，关系表都应当与子节点上浮后的树推算出的闭包一致，
+	 * 即与原先逐个节点重建子树路径的结果相同。
+	 */
+	@Test
+	void deleteKeepsClosure() throws Exception {
+		var parents = CategoryAssert.loadParents();
+		for (var id : parents.keySet()) {
+			repository.delete(id.intValue());
+
+			var expect = new HashMap<>(parents);
+			var parent = expect.remove(id);
+			expect.replaceAll((k, v) -> v.equals(id) ? parent : v);
+
+			CategoryAssert.assertClosure(manager.getConnection(), expect);
+			session.rollback(true);
+		}
+	}
+
 	@Test
 	void invalidDeleteTree() {
 		assertThatThrownBy(() -> repository.deleteTree(-123)).isInstanceOf(IllegalArgumentException.class);
@@ -90,6 +178,10 @@ final class RepositoryTest {
 		assertThat(repository.findById(8)).isNull();
 
 		CategoryAssert.assertList(repository.findById(2).getChildren(), 3, 4);
+
+		/* 关系表中的记录也一并删除了 */
+		assertThat(repository.size()).isEqualTo(7);
+		CategoryAssert.assertContain(repository.findById(1).getTree(), 1, 2, 3, 4);
 	}
 
 	@Test
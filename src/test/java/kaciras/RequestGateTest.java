@@ -0,0 +1,145 @@
+package kaciras;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+final class RequestGateTest {
+
+	@Test
+	void readsRunConcurrently() throws Exception {
+		var gate = new RequestGate(2, 10, 1000);
+		var both = new CountDownLatch(2);
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < 2; i++) {
+				executor.submit(() -> gate.execute(false, () -> {
+					both.countDown();
+					return both.await(1, TimeUnit.SECONDS);
+				}));
+			}
+		}
+		assertThat(both.getCount()).isZero();
+		assertThat(gate.getMetrics().completed()).isEqualTo(2);
+	}
+
+	@Test
+	void writesAreSerialized() throws Exception {
+		var gate = new RequestGate(4, 100, 10000);
+		var writing = new AtomicInteger();
+		var overlap = new AtomicInteger();
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < 40; i++) {
+				var write = i % 4 == 0;
+				executor.submit(() -> gate.execute(write, () -> {
+					if (write && writing.incrementAndGet() > 1) {
+						overlap.incrementAndGet();
+					}
+					Thread.sleep(2);
+					if (write) {
+						writing.decrementAndGet();
+					}
+					return null;
+				}));
+			}
+		}
+		assertThat(overlap.get()).isZero();
+		assertThat(gate.getMetrics().running()).isZero();
+	}
+
+	/* 等待写锁的修改不占用许可，查询不用排在它后面 */
+	@Test
+	void readsDoNotWaitForWriters() throws Exception {
+		var gate = new RequestGate(2, 10, 1000);
+		var entered = new CountDownLatch(1);
+		var release = new CountDownLatch(1);
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			executor.submit(() -> gate.execute(true, () -> {
+				entered.countDown();
+				return release.await(1, TimeUnit.SECONDS);
+			}));
+			entered.await();
+			executor.submit(() -> gate.execute(true, () -> null));
+			while (gate.getMetrics().queued() == 0) {
+				Thread.onSpinWait();
+			}
+
+			assertThat(gate.execute(false, () -> gate.getMetrics().running())).isEqualTo(2);
+			release.countDown();
+		}
+		assertThat(gate.getMetrics().completed()).isEqualTo(3);
+	}
+
+	@Test
+	void writeLockTimeout() throws Exception {
+		var gate = new RequestGate(2, 10, 20);
+		var entered = new CountDownLatch(1);
+		var release = new CountDownLatch(1);
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			executor.submit(() -> gate.execute(true, () -> {
+				entered.countDown();
+				return release.await(1, TimeUnit.SECONDS);
+			}));
+			entered.await();
+
+			assertThatThrownBy(() -> gate.execute(true, () -> null))
+					.isInstanceOf(RejectedExecutionException.class);
+			release.countDown();
+		}
+		var metrics = gate.getMetrics();
+		assertThat(metrics.rejected()).isEqualTo(1);
+		assertThat(metrics.queued()).isZero();
+	}
+
+	@Test
+	void reject() throws Exception {
+		var gate = new RequestGate(1, 0, 1000);
+		var entered = new CountDownLatch(1);
+		var release = new CountDownLatch(1);
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			executor.submit(() -> gate.execute(false, () -> {
+				entered.countDown();
+				return release.await(1, TimeUnit.SECONDS);
+			}));
+			entered.await();
+
+			assertThatThrownBy(() -> gate.execute(false, () -> null))
+					.isInstanceOf(RejectedExecutionException.class);
+			release.countDown();
+		}
+		assertThat(gate.getMetrics().rejected()).isEqualTo(1);
+	}
+
+	@Test
+	void timeout() throws Exception {
+		var gate = new RequestGate(1, 10, 20);
+		var release = new CountDownLatch(1);
+		var entered = new CountDownLatch(1);
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			executor.submit(() -> gate.execute(true, () -> {
+				entered.countDown();
+				return release.await(1, TimeUnit.SECONDS);
+			}));
+			entered.await();
+
+			assertThatThrownBy(() -> gate.execute(false, () -> null))
+					.isInstanceOf(RejectedExecutionException.class);
+			release.countDown();
+		}
+		var metrics = gate.getMetrics();
+		assertThat(metrics.rejected()).isEqualTo(1);
+		assertThat(metrics.queued()).isZero();
+	}
+}
@@ -2,11 +2,16 @@ package kaciras;
 
 import kaciras.setup.DBManager;
 import lombok.Cleanup;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Path;
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -19,7 +24,7 @@ final class TrackingDataSourceTest {
 	private Connection tracked;
 
 	@BeforeEach
-	void setUp() {
+	void setUp() throws Exception {
 		dataSource = new TrackingDataSource(manager.getConnection());
 		tracked = dataSource.getConnection();
 	}
@@ -36,6 +41,20 @@ final class TrackingDataSourceTest {
 		assertThat(sqls[0]).isEqualTo("UPDATE category SET name='new' WHERE id=7");
 	}
 
+	@Test
+	void getAffectedRows() throws Exception {
+		@Cleanup var stat = tracked.prepareStatement("UPDATE category SET name=? WHERE id>?");
+		stat.setString(1, "new");
+		stat.setInt(2, 10);
+		stat.execute();
+
+		assertThat(dataSource.getAffectedRows()).isEqualTo(3);
+		assertThat(stat.getUpdateCount()).isEqualTo(3);
+
+		dataSource.reset();
+		assertThat(dataSource.getAffectedRows()).isZero();
+	}
+
 	@Test
 	void reset() throws Exception {
 		@Cleanup var stat = tracked.prepareStatement("SELECT name FROM category WHERE id=?");
@@ -50,4 +69,40 @@ final class TrackingDataSourceTest {
 		stat.executeQuery();
 		assertThat(dataSource.getExecutedSql()).hasSize(1);
 	}
+
+	@Test
+	void recordsPerThread() throws Exception {
+		var other = new String[1][];
+		var thread = new Thread(() -> {
+			try (var stat = tracked.prepareStatement("SELECT name FROM category WHERE id=1")) {
+				stat.executeQuery();
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+			other[0] = dataSource.getExecutedSql();
+		});
+		thread.start();
+		thread.join();
+
+		assertThat(other[0]).hasSize(1);
+		assertThat(dataSource.getExecutedSql()).isEmpty();
+	}
+
+	@Test
+	void pooled(@TempDir Path dir) throws Exception {
+		var url = "jdbc:sqlite:" + dir.resolve("pooled.db");
+		var pool = new PooledDataSource("org.sqlite.JDBC", url, new Properties());
+		var pooled = new TrackingDataSource(pool);
+		try {
+			try (var connection = pooled.getConnection()) {
+				@Cleanup var stat = connection.prepareStatement("SELECT ?");
+				stat.setInt(1, 7);
+				stat.executeQuery();
+			}
+			assertThat(pooled.getExecutedSql()).containsExactly("SELECT 7");
+			assertThat(pool.getPoolState().getIdleConnectionCount()).isEqualTo(1);
+		} finally {
+			pool.forceCloseAll();
+		}
+	}
 }
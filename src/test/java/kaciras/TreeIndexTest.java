@@ -0,0 +1,120 @@
+package kaciras;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(DatabaseTestLifecycle.class)
+final class TreeIndexTest {
+
+	public Repository repository;
+
+	private TreeIndex index;
+
+	@BeforeEach
+	void setUp() {
+		Category.index = index = TreeIndex.load(Category.mapper);
+	}
+
+	@AfterEach
+	void tearDown() {
+		Category.index = null;
+	}
+
+	/**
+	 * 修改后的索引应当与从数据库重新加载的完全一致。
+	 */
+	private void assertCoherent() {
+		var fresh = TreeIndex.load(Category.mapper);
+		for (int id = 0; id < 20; id++) {
+			assertThat(index.contains(id)).isEqualTo(fresh.contains(id));
+			if (!fresh.contains(id)) {
+				continue;
+			}
+			assertThat(index.getLevel(id)).isEqualTo(fresh.getLevel(id));
+			assertThat(index.getAncestorId(id, 1)).isEqualTo(fresh.getAncestorId(id, 1));
+
+			var expect = fresh.getDescendantIds(id);
+			var actual = index.getDescendantIds(id);
+			Arrays.sort(expect);
+			Arrays.sort(actual);
+			assertThat(actual).containsExactly(expect);
+		}
+	}
+
+	@Test
+	void queries() {
+		assertThat(index.getLevel(0)).isEqualTo(0);
+		assertThat(index.getLevel(9)).isEqualTo(5);
+		assertThat(index.getAncestorId(9, 2)).isEqualTo(5);
+		assertThat(index.getAncestorId(9, 5)).isEqualTo(0);
+		assertThat(index.getAncestorId(9, 6)).isNull();
+		assertThat(index.getDistance(9, 2)).isEqualTo(3);
+		assertThat(index.getDistance(2, 9)).isNull();
+		assertThat(index.isAncestor(5, 10)).isTrue();
+		assertThat(index.isAncestor(6, 10)).isFalse();
+		assertThat(index.getDescendantIds(5)).containsExactlyInAnyOrder(6, 7, 8, 9, 10);
+		assertThat(index.getDescendantIds(13)).isEmpty();
+
+		assertThatThrownBy(() -> index.getLevel(45)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void categoryReads() {
+		var category = repository.findById(9);
+		assertThat(category.getLevel()).isEqualTo(5);
+		assertThat(category.getAncestorId(3)).isEqualTo(2);
+	}
+
+	@Test
+	void add() {
+		var category = new Category();
+		category.setName("新分类");
+		repository.add(category, repository.findById(9));
+		var batch = List.of(new Category(), new Category());
+		batch.forEach(c -> c.setName("批量"));
+		repository.addAll(batch, repository.findById(12));
+		repository.graft(repository.findById(3), TreeSpec.of("A", TreeSpec.of("B"), TreeSpec.of("C")));
+		assertCoherent();
+	}
+
+	@Test
+	void moveTo() {
+		repository.findById(2).moveTo(repository.findById(7));
+		assertCoherent();
+	}
+
+	@Test
+	void moveTreeTo() {
+		repository.findById(2).moveTreeTo(repository.findById(7));
+		assertCoherent();
+
+		repository.findById(11).moveTreeTo(repository.findById(4));
+		assertCoherent();
+	}
+
+	@Test
+	void moveToMissing() {
+		var target = new Category();
+		target.setId(45);
+		assertThatThrownBy(() -> repository.findById(2).moveTo(target)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void delete() {
+		repository.delete(5);
+		assertCoherent();
+
+		repository.deleteTree(2);
+		assertCoherent();
+
+		assertThatThrownBy(() -> repository.delete(5)).isInstanceOf(IllegalArgumentException.class);
+	}
+}
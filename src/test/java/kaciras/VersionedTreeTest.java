@@ -0,0 +1,139 @@
+package kaciras;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(DatabaseTestLifecycle.class)
+final class VersionedTreeTest {
+
+	public Repository repository;
+
+	private VersionedTree tree;
+
+	@BeforeEach
+	void setUp() {
+		Category.snapshots = tree = VersionedTree.load(Category.mapper);
+	}
+
+	@AfterEach
+	void tearDown() {
+		Category.snapshots = null;
+	}
+
+	/**
+	 * 修改后的快照应当与从数据库重新加载的完全一致。
+	 */
+	private void assertCoherent() {
+		var fresh = VersionedTree.load(Category.mapper).current();
+		var current = tree.current();
+
+		assertThat(current.getAll()).usingRecursiveFieldByFieldElementComparator().isEqualTo(fresh.getAll());
+		for (var vo : fresh.getAll()) {
+			var id = vo.getId();
+			CategoryAssert.assertContain(current.getChildren(id), ids(fresh.getChildren(id)));
+			CategoryAssert.assertList(current.getPath(id), ids(fresh.getPath(id)));
+		}
+	}
+
+	private static int[] ids(List<Category> list) {
+		return list.stream().mapToInt(Category::getId).toArray();
+	}
+
+	@Test
+	void queries() {
+		var snapshot = tree.current();
+		assertThat(snapshot.size()).isEqualTo(Category.mapper.selectCount());
+		assertThat(snapshot.getName(0)).isEqualTo("root");
+		assertThat(snapshot.getLevel(9)).isEqualTo(5);
+		assertThat(snapshot.getAncestorId(9, 2)).isEqualTo(5);
+		assertThat(snapshot.getAncestorId(9, 6)).isNull();
+		assertThat(snapshot.getAncestorId(45, 0)).isNull();
+
+		CategoryAssert.assertList(snapshot.getPath(9), 1, 2, 5, 7, 9);
+		CategoryAssert.assertContain(snapshot.getChildren(5), 6, 7);
+		CategoryAssert.assertList(snapshot.getTree(5), 5, 6, 8, 7, 9, 10);
+		assertThat(snapshot.getTree(45)).isEmpty();
+
+		assertThatThrownBy(() -> snapshot.getLevel(45)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void categoryReads() {
+		var category = repository.findById(9);
+		assertThat(category.getPath()).usingRecursiveFieldByFieldElementComparator()
+				.isEqualTo(Category.mapper.selectPathToRoot(9));
+		assertThat(repository.getAllForDemo()).usingRecursiveFieldByFieldElementComparator()
+				.isEqualTo(Category.mapper.selectAllWithParent());
+	}
+
+	@Test
+	void snapshotIsImmutable() {
+		var before = tree.current();
+		repository.findById(2).moveTreeTo(repository.findById(11));
+		var after = tree.current();
+
+		assertThat(after.getVersion()).isGreaterThan(before.getVersion());
+		CategoryAssert.assertList(before.getPath(9), 1, 2, 5, 7, 9);
+		CategoryAssert.assertList(after.getPath(9), 11, 2, 5, 7, 9);
+		CategoryAssert.assertContain(before.getChildren(1), 2);
+		assertThat(after.getChildren(1)).isEmpty();
+	}
+
+	@Test
+	void add() {
+		var version = tree.current().getVersion();
+		var category = new Category();
+		category.setName("新分类");
+		repository.add(category, repository.findById(9));
+		assertThat(tree.current().getVersion()).isEqualTo(version + 1);
+
+		var batch = List.of(new Category(), new Category());
+		batch.forEach(c -> c.setName("批量"));
+		repository.addAll(batch, repository.findById(12));
+		assertThat(tree.current().getVersion()).isEqualTo(version + 2);
+
+		repository.graft(repository.findById(3), TreeSpec.of("A", TreeSpec.of("B"), TreeSpec.of("C")));
+		assertCoherent();
+	}
+
+	@Test
+	void update() {
+		var category = repository.findById(5);
+		category.setName("NewName");
+		repository.update(category);
+		assertThat(tree.current().getName(5)).isEqualTo("NewName");
+	}
+
+	@Test
+	void moveTo() {
+		repository.findById(2).moveTo(repository.findById(7));
+		assertCoherent();
+	}
+
+	@Test
+	void moveTreeTo() {
+		var version = tree.current().getVersion();
+		repository.findById(2).moveTreeTo(repository.findById(7));
+		assertThat(tree.current().getVersion()).isEqualTo(version + 1);
+		assertCoherent();
+
+		repository.findById(11).moveTreeTo(repository.findById(4));
+		assertCoherent();
+	}
+
+	@Test
+	void delete() {
+		repository.delete(5);
+		assertCoherent();
+
+		repository.deleteTree(2);
+		assertCoherent();
+	}
+}
@@ -0,0 +1,75 @@
+package kaciras.setup;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+final class SimpleDatasetTest {
+
+	private static SimpleDataset load(String csv) throws Exception {
+		return new SimpleDataset(new StringReader(csv));
+	}
+
+	/* 子节点写在父节点前面也能按先父后子的顺序输出 */
+	@Test
+	void parentsFirst() throws Exception {
+		var ds = load("""
+				4,D,3,2
+				2,B,2,1
+				3,C,2,1
+				1,A,1,0
+				5,E,1,0
+				""");
+
+		var ids = new ArrayList<Long>();
+		var chains = new ArrayList<long[]>();
+		while (ds.hasNext()) {
+			var row = ds.next();
+			ids.add(row.getId());
+			chains.add(row.getAncestorIds());
+		}
+
+		assertThat(ids).containsExactly(1L, 2L, 4L, 3L, 5L);
+		assertThat(chains.get(2)).containsExactly(4, 2, 1);
+		assertThat(chains.get(3)).containsExactly(3, 1);
+		assertThat(chains.get(4)).containsExactly(5);
+	}
+
+	@Test
+	void resource() throws Exception {
+		try (var ds = new SimpleDataset()) {
+			assertThat(ds.getTotal()).isEqualTo(13);
+			var first = ds.next();
+			assertThat(first.getName()).isEqualTo("电子产品");
+			assertThat(first.getAncestorIds()).containsExactly(1);
+		}
+	}
+
+	@Test
+	void invalid() {
+		assertThatThrownBy(() -> load("1,A,1,0\n1,B,1,0")).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> load("1,A,1,0\n2,B,2,3")).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> load("1,A,1,0\n2,B,2,3\n3,C,2,2")).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> load("1,A")).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	/* 很多节点时 ID 映射需要扩容，链也会很深 */
+	@Test
+	void largeChain() throws Exception {
+		var csv = new StringBuilder();
+		for (int i = 1000; i > 0; i--) {
+			csv.append(i).append(",n,0,").append(i - 1).append('\n');
+		}
+		var ds = load(csv.toString());
+
+		long[] last = null;
+		while (ds.hasNext()) {
+			last = ds.next().getAncestorIds();
+		}
+		assertThat(last).hasSize(1000).startsWith(1000, 999).endsWith(1);
+	}
+}
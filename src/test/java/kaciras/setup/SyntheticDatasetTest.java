@@ -0,0 +1,93 @@
+package kaciras.setup;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+final class SyntheticDatasetTest {
+
+	@Test
+	void invalidArguments() {
+		assertThatThrownBy(() -> new SyntheticDataset(0, 10, 0, 1, 0)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> new SyntheticDataset(0, 10, 256, 1, 0)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> new SyntheticDataset(0, 3, 5, 1, 0)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	/* 父节点先于子节点输出，每层都有节点，且祖先链与父节点的一致 */
+	@Test
+	void parentsFirst() {
+		var ds = new SyntheticDataset(42, 10000, 6, 3, 2);
+		var chains = new HashMap<Long, long[]>();
+		var levels = new int[7];
+
+		while (ds.hasNext()) {
+			var row = ds.next();
+			var ancestors = row.getAncestorIds();
+			assertThat(ancestors[0]).isEqualTo(row.getId());
+
+			if (ancestors.length > 1) {
+				var parent = chains.get(ancestors[1]);
+				assertThat(parent).isNotNull();
+				assertThat(ancestors).endsWith(parent);
+			}
+			chains.put(row.getId(), ancestors);
+			levels[ancestors.length]++;
+		}
+
+		assertThat(chains).hasSize(10000);
+		for (int i = 1; i <= 6; i++) {
+			assertThat(levels[i]).isPositive();
+		}
+	}
+
+	@Test
+	void sameSeedSameTree() {
+		var a = new SyntheticDataset(7, 1000, 4, 5, 1);
+		var b = new SyntheticDataset(7, 1000, 4, 5, 1);
+		while (a.hasNext()) {
+			assertThat(a.next().getAncestorIds()).isEqualTo(b.next().getAncestorIds());
+		}
+	}
+
+	@Test
+	void degenerateShapes() {
+		var chain = SyntheticDataset.chain(1, 255);
+		DataRow last = null;
+		while (chain.hasNext()) {
+			last = chain.next();
+		}
+		assertThat(last.getAncestorIds()).hasSize(255);
+
+		var wide = SyntheticDataset.wide(1, 5000);
+		while (wide.hasNext()) {
+			assertThat(wide.next().getAncestorIds()).hasSize(1);
+		}
+	}
+
+	/* 满 N 叉树按层序编号，与二叉堆的规则相同 */
+	@Test
+	void complete() {
+		var ds = SyntheticDataset.complete(3, 3);
+		assertThat(ds.getTotal()).isEqualTo(3 + 9 + 27);
+
+		var count = 0;
+		while (ds.hasNext()) {
+			var row = ds.next();
+			var id = row.getId();
+			var ancestors = row.getAncestorIds();
+			assertThat(ancestors[0]).isEqualTo(++count);
+			if (ancestors.length > 1) {
+				assertThat(ancestors[1]).isEqualTo((id - 1) / 3);
+			} else {
+				assertThat(id).isBetween(1L, 3L);
+			}
+		}
+		assertThat(count).isEqualTo(39);
+
+		assertThatThrownBy(() -> SyntheticDataset.complete(1, 3)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> SyntheticDataset.complete(10, 10)).isInstanceOf(IllegalArgumentException.class);
+	}
+}